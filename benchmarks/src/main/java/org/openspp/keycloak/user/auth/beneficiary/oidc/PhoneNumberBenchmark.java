@@ -0,0 +1,51 @@
+package org.openspp.keycloak.user.auth.beneficiary.oidc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+/**
+ * Phone number handling of the beneficiary form: normalization, parsing and E.164 formatting as
+ * done in {@code BeneficiaryOIDCAuthenticatorForm.validateForm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PhoneNumberBenchmark {
+
+    private static final String INT_PHONE_CODE = "+964";
+
+    @Param({"712 345 6789", "+964 712 345 6789", "00964 7123456789"})
+    public String phoneNumber;
+
+    private final PhoneNumberUtil phoneNumberUtil = PhoneNumberUtil.getInstance();
+
+    @Benchmark
+    public String normalizePhoneNumber() {
+        return BeneficiaryOIDCAuthenticatorForm.normalizePhoneNumber(INT_PHONE_CODE, phoneNumber);
+    }
+
+    @Benchmark
+    public String parseAndFormat() throws NumberParseException {
+        PhoneNumber pn = phoneNumberUtil.parse(
+                BeneficiaryOIDCAuthenticatorForm.normalizePhoneNumber(INT_PHONE_CODE, phoneNumber), null);
+        return phoneNumberUtil.isValidNumber(pn) ? phoneNumberUtil.format(pn, PhoneNumberFormat.E164) : null;
+    }
+}
@@ -0,0 +1,86 @@
+package org.openspp.keycloak.user.storage;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding a page of registrant rows: the original label based {@code readMap} against the
+ * column indexed {@link RowLayout}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowDecodeBenchmark {
+
+    @Param({"20", "100"})
+    public int rows;
+
+    private CachedRowSet rs;
+    private RowLayout layout;
+
+    @Setup
+    public void setup() throws SQLException {
+        rs = SyntheticResultSets.partners(rows);
+        layout = RowLayout.of(rs.getMetaData());
+    }
+
+    @Benchmark
+    public List<Map<String, String>> readMap() throws SQLException {
+        rs.beforeFirst();
+        return readMapLegacy(rs);
+    }
+
+    @Benchmark
+    public List<UserRow> rowLayout() throws SQLException {
+        rs.beforeFirst();
+        List<UserRow> data = new ArrayList<>();
+        while (rs.next()) {
+            data.add(layout.decode(rs));
+        }
+        return data;
+    }
+
+    /**
+     * The original {@code UserRepository.readMap}, kept as the baseline.
+     */
+    private static List<Map<String, String>> readMapLegacy(ResultSet rs) throws SQLException {
+        List<Map<String, String>> data = new ArrayList<>();
+        Set<String> columnLabels = new HashSet<>();
+        for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+            String columnLabel = rs.getMetaData().getColumnLabel(i);
+            columnLabels.add(columnLabel);
+        }
+        while (rs.next()) {
+            Map<String, String> result = new HashMap<>();
+            for (String col : columnLabels) {
+                result.put(col, rs.getString(col));
+            }
+            data.add(result);
+        }
+        return data;
+    }
+}
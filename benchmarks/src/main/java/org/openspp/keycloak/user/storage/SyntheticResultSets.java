@@ -0,0 +1,50 @@
+package org.openspp.keycloak.user.storage;
+
+import java.sql.SQLException;
+import java.sql.Types;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * In-memory result sets shaped like the rows of the {@code spp_partner_oidc} view.
+ */
+final class SyntheticResultSets {
+
+    static final String[] COLUMNS = {
+        "id", "partner_id", "username", "email", "phone", "first_name", "last_name", "full_name", "is_group",
+        "active_group", "kind_name", "id_type_name", "id_type_value", "group_membership_kind_name",
+        "group_membership_is_ended"
+    };
+
+    private SyntheticResultSets() {
+    }
+
+    static CachedRowSet partners(int rows) throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(COLUMNS.length);
+        for (int i = 1; i <= COLUMNS.length; i++) {
+            metaData.setColumnName(i, COLUMNS[i - 1]);
+            metaData.setColumnLabel(i, COLUMNS[i - 1]);
+            metaData.setColumnType(i, Types.VARCHAR);
+        }
+        CachedRowSet rs = RowSetProvider.newFactory().createCachedRowSet();
+        rs.setMetaData(metaData);
+        for (int r = 0; r < rows; r++) {
+            String id = String.valueOf(100000 + r);
+            String[] values = {
+                id, id, "HH-" + id, "registrant" + id + "@example.org", "+9647123" + id, "", "",
+                "Ahmed Karim " + id, "f", "200" + r, "Individual", "Unified ID", "UID" + id, "Head", "f"
+            };
+            rs.moveToInsertRow();
+            for (int i = 1; i <= values.length; i++) {
+                rs.updateString(i, values[i - 1]);
+            }
+            rs.insertRow();
+            rs.moveToCurrentRow();
+        }
+        rs.beforeFirst();
+        return rs;
+    }
+}
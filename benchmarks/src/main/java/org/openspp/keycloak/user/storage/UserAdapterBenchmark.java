@@ -0,0 +1,64 @@
+package org.openspp.keycloak.user.storage;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+
+import org.keycloak.component.ComponentModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building a {@link UserAdapter} from a row and reading the names Keycloak asks for on every
+ * login and admin search row. Uses read-only attributes, so no Keycloak session is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserAdapterBenchmark {
+
+    private ComponentModel model;
+    private UserRow row;
+    private UserAdapter adapter;
+
+    @Setup
+    public void setup() throws SQLException {
+        model = new ComponentModel();
+        model.setId("benchmark");
+        CachedRowSet rs = SyntheticResultSets.partners(1);
+        rs.next();
+        row = RowLayout.of(rs.getMetaData()).decode(rs);
+        adapter = new UserAdapter(null, null, model, row, true);
+    }
+
+    @Benchmark
+    public UserAdapter construct() {
+        return new UserAdapter(null, null, model, row, true);
+    }
+
+    @Benchmark
+    public void constructAndGetNames(Blackhole bh) {
+        UserAdapter user = new UserAdapter(null, null, model, row, true);
+        bh.consume(user.getFirstName());
+        bh.consume(user.getLastName());
+    }
+
+    @Benchmark
+    public void getNames(Blackhole bh) {
+        bh.consume(adapter.getFirstName());
+        bh.consume(adapter.getLastName());
+    }
+}
@@ -0,0 +1,80 @@
+package org.openspp.keycloak.user.storage.util;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Password verification at Odoo's passlib iteration count, compared with the original JCE based
+ * implementation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PBKDF2HashingUtilBenchmark {
+
+    private static final String PASSWORD = "secret";
+
+    /**
+     * passlib pbkdf2_sha512 and pbkdf2_sha256 hashes of "secret" with 25000 rounds.
+     */
+    @Param({
+        "$pbkdf2-sha512$25000$MDEyMzQ1Njc4OWFiY2RlZg$m28yyWgXn4Qvd2fQ81e1S2A5xmuunG4E1Gf1486hu9kLDwIHy8F3YHrAgxGilxgKS5vWq9EwEkBqsTS2bxygZg",
+        "$pbkdf2-sha256$25000$MDEyMzQ1Njc4OWFiY2RlZg$FU/Sg/ExEPWS8oCCcOh4UNhNXJ7DR8W436k9fUaMItU"
+    })
+    public String hash;
+
+    @Setup
+    public void setup() throws Exception {
+        if (!PBKDF2HashingUtil.validatePassword(PASSWORD, hash)) {
+            throw new IllegalStateException("Benchmark hash does not verify");
+        }
+    }
+
+    @Benchmark
+    public boolean validatePassword() throws Exception {
+        return PBKDF2HashingUtil.validatePassword(PASSWORD, hash);
+    }
+
+    @Benchmark
+    public boolean validatePasswordJce() throws Exception {
+        return validatePasswordLegacy(PASSWORD, hash);
+    }
+
+    /**
+     * The original implementation, kept as the baseline; the key length follows the checksum so
+     * both digests can be compared.
+     */
+    private static boolean validatePasswordLegacy(String password, String hash) throws Exception {
+        String[] hashAttrs = hash.split("\\$");
+        String hmac = hashAttrs[1].split("-")[1].toUpperCase();
+        int iterations = Integer.parseInt(hashAttrs[2]);
+        byte[] salt = Base64.getDecoder().decode(hashAttrs[3].replace(".", "+"));
+        int keyLength = hmac.equals("SHA512") ? 512 : 256;
+        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmac" + hmac);
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength);
+        SecretKey secretKey = skf.generateSecret(spec);
+        String computedHash = Base64.getEncoder().encodeToString(secretKey.getEncoded());
+        computedHash = computedHash.replace("+", ".");
+        computedHash = computedHash.replaceAll("=+$", "");
+        return hashAttrs[4].equals(computedHash);
+    }
+}
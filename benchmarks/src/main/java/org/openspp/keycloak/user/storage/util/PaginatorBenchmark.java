@@ -0,0 +1,87 @@
+package org.openspp.keycloak.user.storage.util;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hibernate.dialect.pagination.LimitHandler;
+import org.hibernate.engine.spi.RowSelection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openspp.keycloak.user.storage.JDBC;
+import org.openspp.keycloak.user.storage.Query;
+
+/**
+ * Building the paged SQL of the admin user search, rewriting the limit and offset into the text on
+ * every call against the statement compiled once with the limit and offset bound as parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaginatorBenchmark {
+
+    private static final Pattern SINGLE_QUESTION_MARK_REGEX = Pattern.compile("(^|[^\\?])(\\?)([^\\?]|$)");
+
+    @Param({"0", "5000"})
+    public int firstResult;
+
+    private final String query = Query.getFindBySearchTerm();
+    private final Paginator.PagedQuery pagedQuery = Paginator.compile(query, JDBC.POSTGRESQL);
+
+    @Benchmark
+    public String legacyRewrite() throws SQLException {
+        return legacyPagableQuery(query, firstResult, 20);
+    }
+
+    @Benchmark
+    public void compiled(Blackhole bh) throws SQLException {
+        Paginator.Pageable pageable = new Paginator.Pageable(firstResult, 20);
+        PreparedStatementParameterCollector statement = new PreparedStatementParameterCollector();
+        int index = 1 + pagedQuery.bindLimitParametersAtStart(pageable, statement, 1);
+        index += pagedQuery.getParameterCount();
+        pagedQuery.bindLimitParametersAtEnd(pageable, statement, index);
+        bh.consume(pagedQuery.getSql(pageable));
+        bh.consume(statement.getParameters());
+    }
+
+    /**
+     * The previous implementation, inlining the limit and offset into the statement text.
+     */
+    private static String legacyPagableQuery(String query, int firstResult, int maxResults) throws SQLException {
+        RowSelection rowSelection = new RowSelection();
+        rowSelection.setFetchSize(maxResults);
+        rowSelection.setFirstRow(firstResult);
+        rowSelection.setMaxRows(maxResults);
+
+        String escapedSQL = query.replaceAll("\\?", "??");
+        LimitHandler limitHandler = JDBC.POSTGRESQL.getDialect().getLimitHandler();
+        StringBuilder processedSQL = new StringBuilder(limitHandler.processSql(escapedSQL, rowSelection));
+        int col = 1;
+        PreparedStatementParameterCollector collector = new PreparedStatementParameterCollector();
+        col += limitHandler.bindLimitParametersAtStartOfQuery(rowSelection, collector, col);
+        limitHandler.bindLimitParametersAtEndOfQuery(rowSelection, collector, col);
+
+        Map<Integer, Object> parameters = collector.getParameters();
+        for (int i = 1; i <= parameters.keySet().size(); i++) {
+            Matcher matcher = SINGLE_QUESTION_MARK_REGEX.matcher(processedSQL);
+            if (matcher.find()) {
+                processedSQL.replace(matcher.start(2), matcher.end(2), String.valueOf(parameters.get(i)));
+            }
+        }
+        return processedSQL.toString().replaceAll("\\?\\?", "?");
+    }
+}
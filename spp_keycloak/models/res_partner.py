@@ -40,6 +40,7 @@ class ResPartnerOIDC(models.Model):
     email = fields.Char(string="Email", required=False)
     phone = fields.Char(string="Phone", required=False)
     password = fields.Char(string="OIDC Password", required=False)
+    write_date = fields.Datetime(string="Last Updated on", required=False)
 
     def init(self):
         """Initialize the sql view  """
@@ -74,7 +75,8 @@ class ResPartnerOIDC(models.Model):
                 p.email,
                 g2p_phone_number.phone_no as phone,
                 g2p_phone_number.phone_sanitized,
-                p.oidc_password AS password
+                p.oidc_password AS password,
+                p.write_date
             FROM
                 res_partner p
                 LEFT JOIN g2p_group_kind ON
@@ -97,3 +99,12 @@ class ResPartnerOIDC(models.Model):
             ORDER BY id
         """ % self._table
         self._cr.execute(query)
+        # Indexes serving the Keycloak "exact" and "prefix" search modes and the phone and ID number lookups.
+        tools.create_index(self._cr, "res_partner_name_pattern_index", "res_partner", ["name text_pattern_ops"])
+        tools.create_index(
+            self._cr, "res_partner_display_name_pattern_index", "res_partner", ["display_name text_pattern_ops"]
+        )
+        tools.create_index(self._cr, "res_partner_email_pattern_index", "res_partner", ["email text_pattern_ops"])
+        tools.create_index(self._cr, "g2p_reg_id_value_index", "g2p_reg_id", ["value"])
+        tools.create_index(self._cr, "g2p_phone_number_phone_no_index", "g2p_phone_number", ["phone_no"])
+        tools.create_index(self._cr, "g2p_phone_number_phone_sanitized_index", "g2p_phone_number", ["phone_sanitized"])
@@ -1,6 +1,8 @@
 package org.openspp.keycloak.user.auth.beneficiary.oidc;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.keycloak.Config;
 import org.keycloak.authentication.Authenticator;
@@ -8,17 +10,28 @@ import org.keycloak.authentication.AuthenticatorFactory;
 import org.keycloak.models.AuthenticationExecutionModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.provider.ProviderConfigProperty;
 
 import com.google.auto.service.AutoService;
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
 
+import lombok.extern.slf4j.Slf4j;
 
+
+@Slf4j
 @AutoService(AuthenticatorFactory.class)
 public class BeneficiaryOIDCAuthenticatorFactory implements AuthenticatorFactory {
     public static final String PROVIDER_ID = "ben-oidc-authenticator";
 
     public static final String INT_PHONE_CODE_FIELD = "intPhoneCode";
     public static final String SAMPLE_PHONE_NUMBER_FIELD = "samplePhoneNumber";
+    static final String DEFAULT_INT_PHONE_CODE = "+964";
+    static final String DEFAULT_SAMPLE_PHONE_NUMBER = "712 345 6789";
 
     @Override
     public String getId() {
@@ -60,9 +73,9 @@ public class BeneficiaryOIDCAuthenticatorFactory implements AuthenticatorFactory
         return List.of(
             // TODO: Make a list of standard international phone code with google/libphonenumber.
             new ProviderConfigProperty(INT_PHONE_CODE_FIELD, "International Country Phone Code", "The internation phone code for the country.",
-                    ProviderConfigProperty.STRING_TYPE, "+964"),
+                    ProviderConfigProperty.STRING_TYPE, DEFAULT_INT_PHONE_CODE),
             new ProviderConfigProperty(SAMPLE_PHONE_NUMBER_FIELD, "Sample Phone Number", "The sample phone number display as placeholder in the phone number field.",
-                    ProviderConfigProperty.STRING_TYPE, "712 345 6789")
+                    ProviderConfigProperty.STRING_TYPE, DEFAULT_SAMPLE_PHONE_NUMBER)
         );
     }
 
@@ -75,8 +88,38 @@ public class BeneficiaryOIDCAuthenticatorFactory implements AuthenticatorFactory
     public void init(Config.Scope config) {
     }
 
+    /**
+     * Once the database is migrated at startup, load the phone number metadata of every configured country
+     * so the first logins do not pay for it.
+     */
     @Override
     public void postInit(KeycloakSessionFactory factory) {
+        factory.register(event -> {
+            if (event instanceof PostMigrationEvent) {
+                Set<String> intPhoneCodes = new HashSet<>();
+                intPhoneCodes.add(DEFAULT_INT_PHONE_CODE);
+                KeycloakModelUtils.runJobInTransaction(factory, session -> session.realms().getRealmsStream()
+                        .flatMap(realm -> realm.getAuthenticatorConfigsStream())
+                        .filter(config -> config.getConfig() != null)
+                        .map(config -> config.getConfig().get(INT_PHONE_CODE_FIELD))
+                        .filter(code -> code != null && !code.isBlank())
+                        .forEach(intPhoneCodes::add));
+                intPhoneCodes.forEach(BeneficiaryOIDCAuthenticatorFactory::loadPhoneNumberMetadata);
+            }
+        });
+    }
+
+    private static void loadPhoneNumberMetadata(String intPhoneCode) {
+        PhoneNumberUtil phoneNumberUtil = PhoneNumberUtil.getInstance();
+        try {
+            PhoneNumber pn = phoneNumberUtil.parse(
+                    BeneficiaryOIDCAuthenticatorForm.normalizePhoneNumber(intPhoneCode, DEFAULT_SAMPLE_PHONE_NUMBER),
+                    null);
+            phoneNumberUtil.format(pn, PhoneNumberFormat.E164);
+            phoneNumberUtil.isValidNumber(pn);
+        } catch (NumberParseException e) {
+            log.warn("Failed to load phone number metadata for {}: {}", intPhoneCode, e.getMessage());
+        }
     }
 
     @Override
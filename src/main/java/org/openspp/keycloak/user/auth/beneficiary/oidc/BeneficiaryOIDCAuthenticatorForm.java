@@ -21,6 +21,8 @@ import org.keycloak.models.UserModel;
 import org.keycloak.models.utils.FormMessage;
 import org.keycloak.services.ServicesLogger;
 import org.keycloak.services.messages.Messages;
+import org.openspp.keycloak.user.storage.OpenSPPUserStorageProvider;
+import org.openspp.keycloak.user.storage.UserStorageException;
 
 import com.google.i18n.phonenumbers.NumberParseException;
 import com.google.i18n.phonenumbers.PhoneNumberUtil;
@@ -80,10 +82,15 @@ public class BeneficiaryOIDCAuthenticatorForm implements Authenticator {
     }
 
     private PhoneNumber parsePhoneNumber(AuthenticationFlowContext context, String phoneNumber) throws NumberParseException {
-        PhoneNumber pn = null;
         String intPhoneCode = configValues.getOrDefault(BeneficiaryOIDCAuthenticatorFactory.INT_PHONE_CODE_FIELD, null);
+        return phoneNumberUtil.parse(normalizePhoneNumber(intPhoneCode, phoneNumber), null);
+    }
 
-        // Pre-process phone number format
+    /**
+     * Pre-process the phone number entered in the form into an international format for the given
+     * country phone code.
+     */
+    static String normalizePhoneNumber(String intPhoneCode, String phoneNumber) {
         if (intPhoneCode != null && !intPhoneCode.isEmpty()) {
             intPhoneCode = intPhoneCode.replaceAll("[^0-9]+", "");
             String phoneDigits = phoneNumber.replaceAll("[^0-9]+", "");
@@ -102,10 +109,7 @@ public class BeneficiaryOIDCAuthenticatorForm implements Authenticator {
                 break;
             }
         }
-
-        pn = phoneNumberUtil.parse(phoneNumber, null);
-
-        return pn;
+        return phoneNumber;
     }
 
     protected boolean validateForm(AuthenticationFlowContext context, MultivaluedMap<String, String> formData) {
@@ -162,6 +166,11 @@ public class BeneficiaryOIDCAuthenticatorForm implements Authenticator {
                 if (user.credentialManager().isValid(UserCredentialModel.password(password))) {
                     log.info("Authentication success, credential is valid.");
                     context.setUser(user);
+                } else if (context.getSession().getAttribute(OpenSPPUserStorageProvider.CREDENTIAL_VALIDATION_BUSY) != null) {
+                    log.warn("Password could not be verified, hashing pool is busy.");
+                    Response challengeResponse = challenge(context, "loginBusyTryAgain", null);
+                    context.forceChallenge(challengeResponse);
+                    return false;
                 } else {
                     log.info("Password is incorrect.");
                     Response challengeResponse = challenge(context, Messages.INVALID_PASSWORD, FIELD_PASSWORD);
@@ -173,6 +182,11 @@ public class BeneficiaryOIDCAuthenticatorForm implements Authenticator {
                 Response challengeResponse = challenge(context, "invalidCredentials", null);
                 context.failureChallenge(AuthenticationFlowError.GENERIC_AUTHENTICATION_ERROR, challengeResponse);
                 return false;
+            } catch (UserStorageException use) {
+                log.warn("Registry is unavailable: {}", use.getMessage());
+                Response challengeResponse = challenge(context, "loginBusyTryAgain", null);
+                context.forceChallenge(challengeResponse);
+                return false;
             }
 
             return true;
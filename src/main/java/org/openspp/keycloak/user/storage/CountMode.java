@@ -0,0 +1,45 @@
+package org.openspp.keycloak.user.storage;
+
+/**
+ * How the number of registrants, in total or matching a search term, is counted for the admin console.
+ * Counts are cached per search term for the count cache TTL in every mode.
+ */
+public enum CountMode {
+
+    /**
+     * COUNT(*) over the registrant view or the search matches.
+     */
+    EXACT("exact"),
+
+    /**
+     * Total from the row estimate of the PostgreSQL planner for the registrant view, read from the table
+     * statistics without scanning the tables. Falls back to an exact count when no estimate is available.
+     * Search matches cannot be estimated, they are counted as in {@link #CAPPED}.
+     */
+    ESTIMATED("estimated"),
+
+    /**
+     * Counting stops one past the count cap, for the total and for search matches. The count methods
+     * return an int, so a count over the cap is reported as cap + 1: 1001 reads "more than 1000".
+     */
+    CAPPED("capped");
+
+    private final String desc;
+
+    CountMode(String desc) {
+        this.desc = desc;
+    }
+
+    public static CountMode getByDescription(String desc) {
+        for (CountMode value : values()) {
+            if (value.desc.equalsIgnoreCase(desc)) {
+                return value;
+            }
+        }
+        return EXACT;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+}
@@ -0,0 +1,33 @@
+package org.openspp.keycloak.user.storage;
+
+/**
+ * Password hash of a registrant together with its partner id and row version, read in one lookup so
+ * a cached user can be checked for changes without loading the registrant again.
+ */
+public final class CredentialEnvelope {
+
+    private final String id;
+    private final String hash;
+    private final String version;
+
+    public CredentialEnvelope(String id, String hash, String version) {
+        this.id = id;
+        this.hash = hash;
+        this.version = version;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the last write date of the registrant, compared with {@link UserRow#VERSION_COLUMN}.
+     */
+    public String getVersion() {
+        return version;
+    }
+}
@@ -1,18 +1,35 @@
 package org.openspp.keycloak.user.storage;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.lang3.StringUtils;
+import org.openspp.keycloak.user.storage.util.StatementTimeout;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+
+import io.micrometer.core.instrument.Metrics;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -20,17 +37,130 @@ import lombok.extern.slf4j.Slf4j;
 public class DataSourceProvider implements Closeable {
 
     private static final SimpleDateFormat SIMPLE_DATE_FORMAT = new SimpleDateFormat("dd-MM-YYYY HH:mm:ss");
-    private ExecutorService executor = Executors.newFixedThreadPool(1);
-    private HikariDataSource hikariDataSource;
+    // Replay lag in milliseconds, 0 when the replica replayed everything it received or is not in recovery.
+    private static final String REPLICATION_LAG_QUERY = "SELECT CASE"
+            + " WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 END";
+    private static final long DRAIN_POLL_INTERVAL = 100;
+    private final AtomicInteger drainThreadNumber = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            r -> new Thread(r, "openspp-pool-drain-" + drainThreadNumber.incrementAndGet()));
+    private final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "openspp-replica-check");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private volatile HikariDataSource hikariDataSource;
+    private volatile List<Replica> replicas = Collections.emptyList();
+    private ScheduledFuture<?> replicaCheck;
+    private volatile long drainTimeout;
+    private volatile RegistryMetrics metrics;
+
+    /**
+     * Prepares a connection of a new pool before the pool serves requests.
+     */
+    @FunctionalInterface
+    interface ConnectionWarmer {
+        void warmUp(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Read replica pool and its last known health.
+     */
+    static final class Replica {
+        private final String url;
+        private final HikariDataSource dataSource;
+        private volatile boolean healthy;
+        private volatile boolean warm;
+        private volatile long lag = -1;
+
+        Replica(String url, HikariDataSource dataSource) {
+            this.url = url;
+            this.dataSource = dataSource;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * @return replication lag in milliseconds at the last check, or -1 when it could not be read.
+         */
+        long getLag() {
+            return lag;
+        }
+
+        int getActiveConnections() {
+            return dataSource.getHikariPoolMXBean().getActiveConnections();
+        }
+    }
 
     public DataSourceProvider() {
     }
 
-    synchronized Optional<DataSource> getDataSource() {
+    /**
+     * @return the primary database.
+     */
+    Optional<DataSource> getDataSource() {
         return Optional.ofNullable(hikariDataSource);
     }
 
-    public void configure(String url, JDBC jdbc, String username, String password, String name, int minIdle, int poolSize, long connectionTimeout, long idleTimeout, long lifeTime) {
+    /**
+     * @return the healthy replica with the fewest connections in use, or the primary when no replica is
+     *         healthy. Ties rotate over the replicas.
+     */
+    Optional<DataSource> getReadDataSource() {
+        List<Replica> current = replicas;
+        int size = current.size();
+        if (size == 0) {
+            return getDataSource();
+        }
+        Replica best = null;
+        int bestActive = Integer.MAX_VALUE;
+        int start = Math.floorMod(nextReplica.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = current.get((start + i) % size);
+            if (replica.isHealthy()) {
+                int active = replica.getActiveConnections();
+                if (active < bestActive) {
+                    best = replica;
+                    bestActive = active;
+                }
+            }
+        }
+        return best != null ? Optional.of(best.dataSource) : getDataSource();
+    }
+
+    List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return pools of the primary and of the replicas.
+     */
+    List<HikariDataSource> getPools() {
+        List<HikariDataSource> pools = new ArrayList<>();
+        HikariDataSource primary = hikariDataSource;
+        if (primary != null) {
+            pools.add(primary);
+        }
+        for (Replica replica : replicas) {
+            pools.add(replica.dataSource);
+        }
+        return pools;
+    }
+
+    public void configure(String url, JDBC jdbc, String username, String password, String name, int minIdle, int poolSize, long connectionTimeout, long idleTimeout, long lifeTime,
+            int prepareThreshold, int preparedStatementCacheQueries, int preparedStatementCacheSizeMiB,
+            List<String> replicaUrls, long maxReplicationLag, long replicaCheckInterval,
+            long drainTimeout, ConnectionWarmer warmer, RegistryMetrics metrics) {
+        this.drainTimeout = drainTimeout;
+        this.metrics = metrics;
         HikariConfig hikariConfig = new HikariConfig();
 
         // https://github.com/brettwooldridge/HikariCP/blob/HikariCP-5.0.1/src/main/java/com/zaxxer/hikari/HikariConfig.java#L50C4-L57C52
@@ -55,6 +185,16 @@ public class DataSourceProvider implements Closeable {
         // This property controls the maximum lifetime of a connection in the pool.
         hikariConfig.setMaxLifetime(lifeTime);
 
+        // https://jdbc.postgresql.org/documentation/server-prepare/
+        // Number of executions of a statement before the driver switches to a named server side prepared statement.
+        hikariConfig.addDataSourceProperty("prepareThreshold", prepareThreshold);
+        // Number of statements per connection the driver keeps prepared, keyed by SQL text.
+        hikariConfig.addDataSourceProperty("preparedStatementCacheQueries", preparedStatementCacheQueries);
+        // Maximum size in MiB of the prepared statement cache per connection.
+        hikariConfig.addDataSourceProperty("preparedStatementCacheSizeMiB", preparedStatementCacheSizeMiB);
+        // Apply the read-only hint of a connection to the session even in autocommit mode.
+        hikariConfig.addDataSourceProperty("readOnlyMode", "always");
+
         hikariConfig.setUsername(username);
         hikariConfig.setPassword(password);
         hikariConfig.setPoolName(
@@ -63,30 +203,181 @@ public class DataSourceProvider implements Closeable {
         hikariConfig.setJdbcUrl(url);
         hikariConfig.setConnectionTestQuery(jdbc.getTestString());
         hikariConfig.setDriverClassName(jdbc.getDriver());
+        // Active, idle and pending connections and the connection wait time of each pool, tagged with the pool name.
+        hikariConfig.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(Metrics.globalRegistry));
+        List<HikariConfig> replicaConfigs = new ArrayList<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            HikariConfig replicaConfig = new HikariConfig();
+            hikariConfig.copyStateTo(replicaConfig);
+            replicaConfig.setJdbcUrl(replicaUrls.get(i));
+            replicaConfig.setPoolName(hikariConfig.getPoolName() + "-replica" + (i + 1));
+            // A replica that is down must not fail the configuration, reads fall back to the primary.
+            replicaConfig.setInitializationFailTimeout(-1);
+            replicaConfigs.add(replicaConfig);
+        }
         HikariDataSource newDS = new HikariDataSource(hikariConfig);
         newDS.validate();
-        HikariDataSource old = this.hikariDataSource;
-        this.hikariDataSource = newDS;
-        disposeOldDataSource(old);
+        // Open and warm the connections now, so the first logins after the swap do not pay for them.
+        int warmConnections = Math.max(Math.min(minIdle, poolSize), 1);
+        long warmUpStart = System.nanoTime();
+        boolean warm = warmUp(newDS, warmConnections, warmer);
+        long warmUpDuration = System.nanoTime() - warmUpStart;
+        List<Replica> newReplicas = new ArrayList<>();
+        for (HikariConfig replicaConfig : replicaConfigs) {
+            newReplicas.add(new Replica(replicaConfig.getJdbcUrl(), new HikariDataSource(replicaConfig)));
+        }
+        synchronized (this) {
+            this.hikariDataSource = newDS;
+            this.replicas = Collections.unmodifiableList(newReplicas);
+            if (!newReplicas.isEmpty()) {
+                replicaCheck = healthChecker.scheduleWithFixedDelay(
+                        () -> checkReplicas(newReplicas, maxReplicationLag, replicaCheckInterval, warmConnections,
+                                warmer), 0,
+                        replicaCheckInterval, MILLISECONDS);
+            }
+        }
+        metrics.recordPoolWarmUp(warmUpDuration);
+        log.info("Pool {} in service: warm={} connections={} warmUpMs={}", newDS.getPoolName(), warm,
+                warmConnections, warmUpDuration / 1_000_000);
+    }
+
+    /**
+     * @return milliseconds a replaced pool waits for its borrowed connections before it closes.
+     */
+    long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /**
+     * Borrow the connections all at once, so the pool opens them, and warm up each of them.
+     *
+     * @return false when a connection could not be opened or warmed up, the pool then starts colder.
+     */
+    private boolean warmUp(HikariDataSource dataSource, int connections, ConnectionWarmer warmer) {
+        List<Connection> borrowed = new ArrayList<>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                Connection c = dataSource.getConnection();
+                borrowed.add(c);
+                warmer.warmUp(c);
+            }
+            return true;
+        } catch (SQLException e) {
+            log.warn("Warm-up of pool {} failed: {}", dataSource.getPoolName(), e.getMessage());
+            return false;
+        } finally {
+            for (Connection c : borrowed) {
+                try {
+                    c.close();
+                } catch (SQLException e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
     }
 
-    private void disposeOldDataSource(HikariDataSource old) {
+    /**
+     * Mark each replica healthy when it answers and lags the primary by at most the maximum lag. The check
+     * may run for one check interval, whatever timeout the queries of the connection last set.
+     */
+    private void checkReplicas(List<Replica> replicas, long maxReplicationLag, long replicaCheckInterval,
+            int warmConnections, ConnectionWarmer warmer) {
+        for (Replica replica : replicas) {
+            // A replica takes reads only once its connections are warm.
+            if (!replica.warm) {
+                replica.warm = warmUp(replica.dataSource, warmConnections, warmer);
+            }
+            long lag = -1;
+            try (Connection c = replica.dataSource.getConnection()) {
+                StatementTimeout.apply(c, replicaCheckInterval);
+                try (Statement statement = c.createStatement();
+                        ResultSet rs = statement.executeQuery(REPLICATION_LAG_QUERY)) {
+                    if (rs.next()) {
+                        double value = rs.getDouble(1);
+                        lag = rs.wasNull() ? -1 : (long) value;
+                    }
+                }
+            } catch (SQLException e) {
+                log.warn("Replica {} check failed: {}", replica.url, e.getMessage());
+            }
+            boolean healthy = replica.warm && lag >= 0 && lag <= maxReplicationLag;
+            if (healthy != replica.healthy) {
+                log.info("Replica {} is now {}: lag={}ms", replica.url, healthy ? "healthy" : "unhealthy", lag);
+            }
+            replica.lag = lag;
+            replica.healthy = healthy;
+        }
+    }
+
+    /**
+     * Close the pool once every borrowed connection was returned, or once the drain timeout expired.
+     * Idle connections are closed right away, borrowed ones as they are returned, and requests still
+     * holding the old configuration can borrow from the pool until it closes.
+     */
+    private void drain(HikariDataSource pool) {
+        if (pool == null) {
+            return;
+        }
         executor.submit(() -> {
+            long start = System.nanoTime();
+            long deadline = start + MILLISECONDS.toNanos(drainTimeout);
+            boolean drained = true;
             try {
-                if (old != null) {
-                    old.close();
+                HikariPoolMXBean poolBean = pool.getHikariPoolMXBean();
+                if (poolBean != null) {
+                    // Keep the pool from opening connections again to refill its idle minimum.
+                    pool.getHikariConfigMXBean().setMinimumIdle(0);
+                    poolBean.softEvictConnections();
+                    while (poolBean.getActiveConnections() > 0 && System.nanoTime() < deadline) {
+                        Thread.sleep(DRAIN_POLL_INTERVAL);
+                    }
+                    drained = poolBean.getActiveConnections() == 0;
                 }
+            } catch (InterruptedException e) {
+                drained = false;
+                Thread.currentThread().interrupt();
             } catch (Exception e) {
                 log.error(e.getMessage(), e);
+            } finally {
+                try {
+                    pool.close();
+                } catch (Exception e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+            long duration = System.nanoTime() - start;
+            if (drained) {
+                log.info("Pool {} drained and closed after {}ms", pool.getPoolName(), duration / 1_000_000);
+            } else {
+                log.warn("Pool {} closed with borrowed connections after the {}ms drain timeout", pool.getPoolName(),
+                        drainTimeout);
+            }
+            RegistryMetrics current = metrics;
+            if (current != null) {
+                current.recordPoolDrain(duration, drained);
             }
         });
     }
 
+    /**
+     * Stop checking the replicas and drain the pools in the background.
+     */
     @Override
     public void close() {
-        executor.shutdownNow();
-        if (hikariDataSource != null) {
-            hikariDataSource.close();
+        healthChecker.shutdownNow();
+        HikariDataSource primary;
+        List<Replica> current;
+        synchronized (this) {
+            if (replicaCheck != null) {
+                replicaCheck.cancel(false);
+            }
+            primary = this.hikariDataSource;
+            current = this.replicas;
+        }
+        drain(primary);
+        for (Replica replica : current) {
+            drain(replica.dataSource);
         }
+        executor.shutdown();
     }
 }
@@ -0,0 +1,72 @@
+package org.openspp.keycloak.user.storage;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Last id served before a given offset of a search, shared by every session of one provider component,
+ * so the next page of a listing seeks past that id instead of skipping rows with OFFSET.
+ */
+@Slf4j
+public class KeysetCursorCache {
+
+    private static final char KEY_SEPARATOR = '\u001f';
+
+    private final boolean enabled;
+    private final Cache<String, Long> cursors;
+
+    /**
+     * @param ttl     time in milliseconds a cursor is remembered, 0 disables the cache.
+     * @param maxSize maximum number of cursors remembered, 0 disables the cache.
+     */
+    public KeysetCursorCache(long ttl, long maxSize) {
+        this.enabled = ttl > 0 && maxSize > 0;
+        this.cursors = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(ttl, 0), MILLISECONDS)
+                .maximumSize(Math.max(maxSize, 0))
+                .recordStats()
+                .build();
+    }
+
+    private static String key(String search, int offset) {
+        return search + KEY_SEPARATOR + offset;
+    }
+
+    /**
+     * @return id of the last row before the offset, or null when no page ending there was served.
+     */
+    public Long get(String search, int offset) {
+        return enabled ? cursors.getIfPresent(key(search, offset)) : null;
+    }
+
+    public void put(String search, int offset, String lastId) {
+        if (enabled && lastId != null) {
+            try {
+                cursors.put(key(search, offset), Long.valueOf(lastId));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring non numeric keyset cursor id: {}", lastId);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        cursors.invalidateAll();
+    }
+
+    public CacheStats getStats() {
+        return cursors.stats();
+    }
+
+    public void logStats(String name) {
+        if (enabled) {
+            CacheStats stats = getStats();
+            log.info("Keyset cursor cache {}: size={} hits={} misses={} hitRate={}", name, cursors.size(),
+                    stats.hitCount(), stats.missCount(), String.format("%.3f", stats.hitRate()));
+        }
+    }
+}
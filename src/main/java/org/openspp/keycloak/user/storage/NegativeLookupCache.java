@@ -0,0 +1,91 @@
+package org.openspp.keycloak.user.storage;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Short lived record of lookups that found nothing, so repeated misses from typos or credential
+ * stuffing are answered without a round trip to the database. Entries must be invalidated when a
+ * registrant is created, otherwise the registrant can only log in once the entry expires: the
+ * repository forgets the username miss of every registrant it finds, and synchronizing the provider
+ * forgets every miss.
+ */
+@Slf4j
+public class NegativeLookupCache {
+
+    public enum Kind {
+        USERNAME,
+        BENEFICIARY
+    }
+
+    private static final char KEY_SEPARATOR = '\u001f';
+
+    private final boolean enabled;
+    private final Map<Kind, Cache<String, Boolean>> misses = new EnumMap<>(Kind.class);
+
+    /**
+     * @param ttl     time in milliseconds a miss is remembered, 0 disables the cache.
+     * @param maxSize maximum number of misses remembered per kind, 0 disables the cache.
+     */
+    public NegativeLookupCache(long ttl, long maxSize) {
+        this.enabled = ttl > 0 && maxSize > 0;
+        for (Kind kind : Kind.values()) {
+            misses.put(kind, CacheBuilder.newBuilder()
+                    .expireAfterWrite(Math.max(ttl, 0), MILLISECONDS)
+                    .maximumSize(Math.max(maxSize, 0))
+                    .recordStats()
+                    .<String, Boolean>build());
+        }
+    }
+
+    private static String key(String... parts) {
+        return parts.length == 1 ? parts[0] : String.join(String.valueOf(KEY_SEPARATOR), parts);
+    }
+
+    public boolean isKnownMiss(Kind kind, String... parts) {
+        return enabled && misses.get(kind).getIfPresent(key(parts)) != null;
+    }
+
+    public void recordMiss(Kind kind, String... parts) {
+        if (enabled) {
+            misses.get(kind).put(key(parts), Boolean.TRUE);
+        }
+    }
+
+    public void invalidate(Kind kind, String... parts) {
+        misses.get(kind).invalidate(key(parts));
+    }
+
+    public void invalidateAll() {
+        for (Cache<String, Boolean> cache : misses.values()) {
+            cache.invalidateAll();
+        }
+    }
+
+    public CacheStats getStats(Kind kind) {
+        return misses.get(kind).stats();
+    }
+
+    public long size(Kind kind) {
+        return misses.get(kind).size();
+    }
+
+    public void logStats(String name) {
+        if (enabled) {
+            for (Kind kind : Kind.values()) {
+                CacheStats stats = getStats(kind);
+                log.info("Negative lookup cache {} {}: size={} hits={} misses={} hitRate={}", name, kind,
+                        size(kind), stats.hitCount(), stats.missCount(),
+                        String.format("%.3f", stats.hitRate()));
+            }
+        }
+    }
+}
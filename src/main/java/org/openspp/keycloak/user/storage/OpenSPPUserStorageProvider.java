@@ -1,8 +1,9 @@
 package org.openspp.keycloak.user.storage;
 
-import java.util.Hashtable;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -25,6 +26,7 @@ import org.keycloak.storage.user.UserQueryProvider;
 import org.keycloak.storage.user.UserRegistrationProvider;
 import org.openspp.keycloak.user.auth.beneficiary.oidc.BeneficiaryOIDCAuthenticatorForm;
 import org.openspp.keycloak.user.storage.util.Paginator;
+import org.openspp.keycloak.user.storage.util.PasswordHashingExecutor;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -33,20 +35,55 @@ public class OpenSPPUserStorageProvider implements UserStorageProvider,
         UserLookupProvider, UserQueryProvider, CredentialInputUpdater, CredentialInputValidator,
         UserRegistrationProvider {
 
+    /**
+     * Session attribute set when a password could not be verified because the hashing pool is saturated.
+     */
+    public static final String CREDENTIAL_VALIDATION_BUSY = "openspp.credentialValidationBusy";
+
     private final KeycloakSession session;
     private final ComponentModel model;
     private final UserRepository repository;
-
-    OpenSPPUserStorageProvider(KeycloakSession session, ComponentModel model, DataSourceProvider dataSourceProvider,
-            QueryConfigurations queryConfigurations) {
+    private final boolean readOnlyAttributes;
+    private final boolean federatedAttributes;
+    // Identity map of the users resolved by this provider instance, which lives as long as its session.
+    private final Map<String, UserAdapter> usersById = new HashMap<>();
+    private final Map<String, UserAdapter> usersByUsername = new HashMap<>();
+    private final Map<String, UserAdapter> usersByBeneficiaryForm = new HashMap<>();
+
+    OpenSPPUserStorageProvider(KeycloakSession session, ComponentModel model, ProviderConfig providerConfig) {
         this.session = session;
         this.model = model;
-        this.repository = new UserRepository(session, dataSourceProvider, queryConfigurations);
+        this.repository = new UserRepository(session, providerConfig.dataSourceProvider,
+                providerConfig.queryConfigurations, providerConfig.registrantCache,
+                providerConfig.negativeLookupCache, providerConfig.passwordHashingExecutor,
+                providerConfig.keysetCursorCache, providerConfig.userCountCache,
+                model.get(OpenSPPUserStorageProviderFactory.PIN_CONNECTION, false),
+                providerConfig.circuitBreaker, providerConfig.bulkhead, providerConfig.metrics);
+        this.readOnlyAttributes = model.get(OpenSPPUserStorageProviderFactory.READ_ONLY_ATTRIBUTES, true);
+        this.federatedAttributes = model.get(OpenSPPUserStorageProviderFactory.FEDERATED_ATTRIBUTES, false);
+    }
+
+    private UserAdapter toUserAdapter(RealmModel realm, UserRow row) {
+        return new UserAdapter(session, realm, model, row, readOnlyAttributes, federatedAttributes);
+    }
+
+    /**
+     * The adapter already resolved for the partner in this session, or a new one remembered by partner id.
+     */
+    private UserAdapter toIdentity(RealmModel realm, UserRow row) {
+        return usersById.computeIfAbsent(row.getId(), id -> toUserAdapter(realm, row));
+    }
+
+    private void forget(String externalId) {
+        UserAdapter user = usersById.remove(externalId);
+        if (user != null) {
+            usersByUsername.values().removeIf(u -> u == user);
+            usersByBeneficiaryForm.values().removeIf(u -> u == user);
+        }
     }
 
-    private Stream<UserModel> toUserModelStream(RealmModel realm, List<Map<String, String>> users) {
-        return users.stream()
-                .map(m -> new UserAdapter(session, realm, model, m));
+    private Stream<UserModel> toUserModelStream(RealmModel realm, Stream<UserRow> users) {
+        return users.map(row -> toUserAdapter(realm, row));
     }
 
     @Override
@@ -69,31 +106,42 @@ public class OpenSPPUserStorageProvider implements UserStorageProvider,
 
         UserCredentialModel cred = (UserCredentialModel) input;
 
-        UserModel dbUser = user;
-        // If the cache just got loaded in the last 500 millisec (i.e. probably part of
-        // the actual flow), there is no point in reloading the user.)
-        if (user instanceof CachedUserModel
-                && (System.currentTimeMillis() - ((CachedUserModel) user).getCacheTimestamp()) > 500) {
-            dbUser = this.getUserById(realm, user.getId());
-
-            if (dbUser == null) {
-                ((CachedUserModel) user).invalidate();
-                return false;
-            }
-
-            // TODO: Check all (or a parametered list of) attributes fetched from the DB.
-            if (!java.util.Objects.equals(user.getId(), dbUser.getId())
-                    || !java.util.Objects.equals(user.getUsername(), dbUser.getUsername())
-                    || !java.util.Objects.equals(user.getEmail(), dbUser.getEmail())) {
-                ((CachedUserModel) user).invalidate();
-            }
-        }
+        // The hash comes with the partner id and the row version, so a cached user is revalidated by
+        // comparing the version instead of reloading the registrant.
+        Optional<CredentialEnvelope> credentials;
         try {
-            return repository.validateCredentials(dbUser.getUsername(), cred.getChallengeResponse());
-        } catch (Exception e) {
-            e.printStackTrace();
+            credentials = repository.findCredentials(user.getUsername());
+        } catch (UserStorageException e) {
+            // Let the authenticator tell the user to retry instead of reporting a wrong password.
+            log.warn("Credentials of user {} could not be read: {}", user.getUsername(), e.getMessage());
+            session.setAttribute(CREDENTIAL_VALIDATION_BUSY, Boolean.TRUE);
+            return false;
         }
-        return false;
+        String externalId = StorageId.externalId(user.getId());
+        if (credentials.isEmpty() || !Objects.equals(externalId, credentials.get().getId())) {
+            log.info("User {} is no longer in the registry under this username", user.getUsername());
+            invalidate(user, externalId);
+            return false;
+        }
+        if (!Objects.equals(user.getFirstAttribute(UserRow.VERSION_COLUMN), credentials.get().getVersion())) {
+            log.debug("User {} changed in the registry, dropping cached copies", user.getUsername());
+            invalidate(user, externalId);
+        }
+        PasswordHashingExecutor.Result result = repository.validateCredentials(credentials.get(),
+                cred.getChallengeResponse());
+        if (result == PasswordHashingExecutor.Result.BUSY) {
+            // Let the authenticator tell the user to retry instead of reporting a wrong password.
+            session.setAttribute(CREDENTIAL_VALIDATION_BUSY, Boolean.TRUE);
+        }
+        return result == PasswordHashingExecutor.Result.VALID;
+    }
+
+    private void invalidate(UserModel user, String externalId) {
+        if (user instanceof CachedUserModel) {
+            ((CachedUserModel) user).invalidate();
+        }
+        repository.evict(externalId, user.getUsername());
+        forget(externalId);
     }
 
     @Override
@@ -131,6 +179,10 @@ public class OpenSPPUserStorageProvider implements UserStorageProvider,
     @Override
     public void close() {
         log.debug("closing");
+        usersById.clear();
+        usersByUsername.clear();
+        usersByBeneficiaryForm.clear();
+        repository.close();
     }
 
     @Override
@@ -138,13 +190,17 @@ public class OpenSPPUserStorageProvider implements UserStorageProvider,
         log.info("lookup user by id: realm={} userId={}", realm.getId(), id);
 
         String externalId = StorageId.externalId(id);
-        Map<String, String> user = repository.findUserById(externalId);
+        UserAdapter known = usersById.get(externalId);
+        if (known != null) {
+            return known;
+        }
+        UserRow user = repository.findUserById(externalId);
 
         if (user == null) {
             log.debug("findUserById returned null, skipping creation of UserAdapter, expect login error");
             return null;
         } else {
-            return new UserAdapter(session, realm, model, user);
+            return toIdentity(realm, user);
         }
     }
 
@@ -162,38 +218,33 @@ public class OpenSPPUserStorageProvider implements UserStorageProvider,
         ) {
 
             log.info(">>>>>>>>>>>>>>>> Input data: UID={} Phone={} Household={}", uidNumber, phoneNumber, householdNumber);
-    
-            Stream<UserModel> users = toUserModelStream(realm, repository.findUsersByBeneficiaryForm(householdNumber, uidNumber, phoneNumber));
-    
-            Hashtable<String, UserModel> foundUsers = new Hashtable<>();
-    
-            users.forEach(u -> {
-                final UserAdapter ua = (UserAdapter)u;
-                if (ua.isGroup()) {
-                    if (u.getFirstName().equals(householdNumber)) {
-                        log.info("Found household user: {}", u.getUsername());
-                        foundUsers.put("household", u);
-                    } else {
-                        log.warn("User {} is a group but Household number is not correct", u.getUsername());
-                    }
-                } else {
-                    if (ua.getTypeName().equals("Unified ID")
-                        && ua.getTypeValue().equals(uidNumber)
-                        && ua.getPhoneNumber().equals(phoneNumber)) {
-                        log.info("Found member user: {}", u.getUsername());
-                        foundUsers.put("member", u);
-                    } else {
-                        log.warn("User {} is individual but Unified ID is not correct", u.getUsername());
-                    }
-                }
-            });
-    
-            if (foundUsers.containsKey("household") && foundUsers.containsKey("member")) {
-                return foundUsers.get("member");
+
+            String key = String.join("\u001f", householdNumber, uidNumber, phoneNumber);
+            UserAdapter known = usersByBeneficiaryForm.get(key);
+            if (known != null) {
+                return known;
             }
-            return null;
+            Optional<UserRow> member = repository.findUserByBeneficiaryForm(householdNumber, uidNumber, phoneNumber);
+            if (member.isEmpty()) {
+                log.warn("No head of household {} with the Unified ID and phone number", householdNumber);
+                return null;
+            }
+            log.info("Found member user: {}", member.get().getUsername());
+            UserAdapter user = toIdentity(realm, member.get());
+            usersByBeneficiaryForm.put(key, user);
+            return user;
         } else {
-            return repository.findUserByUsername(username).map(u -> new UserAdapter(session, realm, model, u)).orElse(null);
+            UserAdapter known = usersByUsername.get(username);
+            if (known != null) {
+                return known;
+            }
+            Optional<UserRow> row = repository.findUserByUsername(username);
+            if (row.isEmpty()) {
+                return null;
+            }
+            UserAdapter user = toIdentity(realm, row.get());
+            usersByUsername.put(username, user);
+            return user;
         }
     }
 
@@ -261,14 +312,18 @@ public class OpenSPPUserStorageProvider implements UserStorageProvider,
     @Override
     public Stream<UserModel> searchForUserStream(RealmModel realm, String search, Integer firstResult,
             Integer maxResults) {
-        return internalSearchForUser(realm, search, new Paginator.Pageable(firstResult, maxResults));
+        return internalSearchForUser(realm, search, toPageable(firstResult, maxResults));
     }
 
     @Override
     public Stream<UserModel> searchForUserStream(RealmModel realm, Map<String, String> params, Integer firstResult,
             Integer maxResults) {
         return internalSearchForUser(realm, params.values().stream().findFirst().orElse(null),
-                new Paginator.Pageable(firstResult, maxResults));
+                toPageable(firstResult, maxResults));
+    }
+
+    private static Paginator.Pageable toPageable(Integer firstResult, Integer maxResults) {
+        return new Paginator.Pageable(firstResult != null ? firstResult : 0, maxResults != null ? maxResults : -1);
     }
 
     @Override
@@ -285,6 +340,7 @@ public class OpenSPPUserStorageProvider implements UserStorageProvider,
     public Stream<UserModel> getBeneficiaryUser(RealmModel realm, String uidNumber, String phoneNumber, String householdNumber) {
         log.info("lookup user by id: realm={} UID={} Phone={} Household={}", realm.getId(), householdNumber, uidNumber, phoneNumber);
 
-        return toUserModelStream(realm, repository.findUsersByBeneficiaryForm(householdNumber, uidNumber, phoneNumber));
+        return repository.findUserByBeneficiaryForm(householdNumber, uidNumber, phoneNumber).stream()
+                .map(u -> toUserAdapter(realm, u));
     }
 }
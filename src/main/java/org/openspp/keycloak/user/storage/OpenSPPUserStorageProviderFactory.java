@@ -1,19 +1,41 @@
 package org.openspp.keycloak.user.storage;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import org.keycloak.Config;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.component.ComponentValidationException;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.provider.ProviderConfigurationBuilder;
+import org.keycloak.storage.UserStorageProvider;
 import org.keycloak.storage.UserStorageProviderFactory;
+import org.keycloak.storage.UserStorageProviderModel;
+import org.keycloak.storage.user.ImportSynchronization;
+import org.keycloak.storage.user.SynchronizationResult;
+import org.openspp.keycloak.user.storage.util.Bulkhead;
+import org.openspp.keycloak.user.storage.util.CircuitBreaker;
+import org.openspp.keycloak.user.storage.util.PasswordHashingExecutor;
 
 import com.google.auto.service.AutoService;
 
@@ -21,35 +43,154 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @AutoService(UserStorageProviderFactory.class)
-public class OpenSPPUserStorageProviderFactory implements UserStorageProviderFactory<OpenSPPUserStorageProvider> {
+public class OpenSPPUserStorageProviderFactory implements UserStorageProviderFactory<OpenSPPUserStorageProvider>,
+        ImportSynchronization {
 
     public static final String id = "openspp";
-    private Map<String, ProviderConfig> providerConfigPerInstance = new HashMap<>();
+    public static final String READ_ONLY_ATTRIBUTES = "readOnlyAttributes";
+    public static final String FEDERATED_ATTRIBUTES = "federatedAttributes";
+    public static final String PIN_CONNECTION = "pinConnection";
+    public static final String DEFAULT_IDENTIFIER_PATTERN = "\\+?[0-9][0-9 ()./-]{4,}";
+    private final ProviderConfigRegistry providerConfigs = new ProviderConfigRegistry(this::configure,
+            getConfigProperties());
+    private boolean eagerInit;
+    private long startupTimeout;
 
     @Override
     public void init(Config.Scope config) {
+        eagerInit = config.getBoolean("eagerInit", true);
+        startupTimeout = config.getLong("startupTimeout", MINUTES.toMillis(2));
     }
 
+    /**
+     * Once the database is migrated at startup, build the configuration of every component up front.
+     */
     @Override
-    public void close() {
-        for (Map.Entry<String, ProviderConfig> pc : providerConfigPerInstance.entrySet()) {
-            pc.getValue().dataSourceProvider.close();
+    public void postInit(KeycloakSessionFactory factory) {
+        if (!eagerInit) {
+            return;
+        }
+        factory.register(event -> {
+            if (event instanceof PostMigrationEvent) {
+                initializeComponents(factory);
+            }
+        });
+    }
+
+    /**
+     * Build the pools of every enabled component across realms in parallel and warm them up. Keycloak
+     * completes its startup, and reports ready, only once they are built or the startup timeout expired,
+     * so a new node takes logins at full speed. A component failing here is built again on first use.
+     */
+    private void initializeComponents(KeycloakSessionFactory factory) {
+        List<ComponentModel> components = new ArrayList<>();
+        KeycloakModelUtils.runJobInTransaction(factory, session -> session.realms().getRealmsStream()
+                .flatMap(realm -> realm.getComponentsStream(realm.getId(), UserStorageProvider.class.getName()))
+                .filter(model -> id.equals(model.getProviderId()))
+                .filter(model -> new UserStorageProviderModel(model).isEnabled())
+                .forEach(components::add));
+        if (components.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + MILLISECONDS.toNanos(startupTimeout);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(components.size(), Runtime.getRuntime().availableProcessors()),
+                r -> new Thread(r, "openspp-init-" + threadNumber.incrementAndGet()));
+        int ready = 0;
+        try {
+            List<Future<ProviderConfig>> builds = new ArrayList<>();
+            for (ComponentModel model : components) {
+                builds.add(executor.submit(() -> providerConfigs.get(model)));
+            }
+            for (int i = 0; i < builds.size(); i++) {
+                ComponentModel model = components.get(i);
+                try {
+                    builds.get(i).get(Math.max(deadline - System.nanoTime(), 0), NANOSECONDS);
+                    ready++;
+                } catch (ExecutionException e) {
+                    log.error("Failed to initialize provider {}: {}", model.getName(), e.getCause().getMessage(),
+                            e.getCause());
+                } catch (TimeoutException e) {
+                    log.warn("Provider {} still initializing after {}ms, not waiting for it", model.getName(),
+                            startupTimeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } finally {
+            // Builds still running complete in the background.
+            executor.shutdown();
         }
+        log.info("Initialized {} of {} providers in {}ms", ready, components.size(),
+                (System.nanoTime() - start) / 1_000_000);
     }
 
+    @Override
+    public void close() {
+        providerConfigs.close();
+    }
+
+    /**
+     * Lock-free once the component is configured: the snapshot is reused as long as the component is unchanged,
+     * and a changed component is served by its previous snapshot until the new one is ready.
+     */
     @Override
     public OpenSPPUserStorageProvider create(KeycloakSession session, ComponentModel model) {
-        ProviderConfig providerConfig = providerConfigPerInstance.computeIfAbsent(model.getId(),
-                s -> configure(model));
-        return new OpenSPPUserStorageProvider(session, model, providerConfig.dataSourceProvider,
-                providerConfig.queryConfigurations);
+        return new OpenSPPUserStorageProvider(session, model, providerConfigs.get(model));
     }
 
-    private synchronized ProviderConfig configure(ComponentModel model) {
-        log.info("Creating configuration for model: id={} name={}", model.getId(), model.getName());
-        ProviderConfig providerConfig = new ProviderConfig();
+    private ProviderConfig configure(ComponentModel model, long version, RegistryMetrics metrics) {
+        log.info("Creating configuration for model: id={} name={} version={}", model.getId(), model.getName(),
+                version);
         JDBC jdbc = JDBC.getByDescription(JDBC.POSTGRESQL.getDesc());
-        providerConfig.dataSourceProvider.configure(
+        SearchMode searchMode = SearchMode.getByDescription(model.get("searchMode", SearchMode.CONTAINS.getDesc()));
+        String identifierPattern = model.get("identifierPattern", DEFAULT_IDENTIFIER_PATTERN);
+        List<String> attributes = parseList(model.get("attributes"));
+        if (attributes.isEmpty()) {
+            attributes = Query.ATTRIBUTE_COLUMNS;
+        }
+        // Lookups load the profile of one user, listings and searches only what the admin console shows.
+        String profileColumns = Query.getColumns(attributes);
+        String searchColumns = Query.getSearchColumns(attributes);
+        PaginationMode paginationMode = PaginationMode.getByDescription(
+                model.get("paginationMode", PaginationMode.OFFSET.getDesc()));
+        QueryConfigurations queryConfigurations = new QueryConfigurations(
+                // Keyset pages list each partner once.
+                paginationMode == PaginationMode.KEYSET ? Query.getCountPartners() : Query.getCount(),
+                Query.getCountEstimate(),
+                Query.getListAll(searchColumns),
+                Query.getFindById(profileColumns),
+                Query.getFindByUsername(profileColumns),
+                Query.getFindByBeneficiaryForm(profileColumns),
+                Query.getFindBySearchTerm(searchMode, searchColumns),
+                Query.getFindByIdentifier(searchColumns),
+                Query.getFindPasswordHash(),
+                Query.getFindPasswordHashAlt(),
+                jdbc
+        );
+        queryConfigurations.setFetchSize(model.get("fetchSize", 100));
+        queryConfigurations.setPaginationMode(paginationMode);
+        queryConfigurations.setCountMode(
+                CountMode.getByDescription(model.get("countMode", CountMode.EXACT.getDesc())));
+        queryConfigurations.setSearchCountCap(model.get("searchCountCap", 1000));
+        queryConfigurations.setSearchMode(searchMode);
+        queryConfigurations.setIdentifierPattern(
+                identifierPattern == null || identifierPattern.isBlank() ? null : Pattern.compile(identifierPattern));
+        queryConfigurations.setQueryTimeout(QueryKind.LOOKUP,
+                model.get("lookupQueryTimeout", SECONDS.toMillis(5)));
+        queryConfigurations.setQueryTimeout(QueryKind.BENEFICIARY,
+                model.get("beneficiaryQueryTimeout", SECONDS.toMillis(5)));
+        queryConfigurations.setQueryTimeout(QueryKind.HASH,
+                model.get("hashQueryTimeout", SECONDS.toMillis(5)));
+        queryConfigurations.setQueryTimeout(QueryKind.SEARCH,
+                model.get("searchQueryTimeout", SECONDS.toMillis(30)));
+        queryConfigurations.setQueryTimeout(QueryKind.COUNT,
+                model.get("countQueryTimeout", SECONDS.toMillis(30)));
+        DataSourceProvider dataSourceProvider = new DataSourceProvider();
+        dataSourceProvider.configure(
             model.get("url"),
             jdbc,
             model.get("user"),
@@ -59,35 +200,111 @@ public class OpenSPPUserStorageProviderFactory implements UserStorageProviderFac
             model.get("poolSize", 50),
             model.get("connectionTimeout", SECONDS.toMillis(30)),
             model.get("idleTimeout", MINUTES.toMillis(10)),
-            model.get("lifeTime", MINUTES.toMillis(30))
+            model.get("lifeTime", MINUTES.toMillis(30)),
+            model.get("prepareThreshold", 1),
+            model.get("preparedStatementCacheQueries", 256),
+            model.get("preparedStatementCacheSizeMiB", 5),
+            parseList(model.get("replicaUrls")),
+            model.get("maxReplicationLag", SECONDS.toMillis(5)),
+            model.get("replicaCheckInterval", SECONDS.toMillis(5)),
+            model.get("poolDrainTimeout", SECONDS.toMillis(30)),
+            c -> UserRepository.warmUp(c, queryConfigurations),
+            metrics
         );
-        providerConfig.queryConfigurations = new QueryConfigurations(
-                Query.getCount(),
-                Query.getListAll(),
-                Query.getFindById(),
-                Query.getFindByUsername(),
-                Query.getFindByBeneficiaryForm(),
-                Query.getFindBySearchTerm(),
-                Query.getFindPasswordHash(),
-                Query.getFindPasswordHashAlt(),
-                jdbc
+        UserCountCache userCountCache = new UserCountCache(
+            model.get("countCacheTtl", SECONDS.toMillis(60)),
+            model.get("countCacheMaxSize", 1000)
         );
-        return providerConfig;
+        KeysetCursorCache keysetCursorCache = new KeysetCursorCache(
+            model.get("keysetCursorTtl", MINUTES.toMillis(10)),
+            model.get("keysetCursorMaxSize", 10000)
+        );
+        RegistrantCache registrantCache = new RegistrantCache(
+            model.get("cacheTtl", SECONDS.toMillis(60)),
+            model.get("cacheMaxSize", 10000)
+        );
+        NegativeLookupCache negativeLookupCache = new NegativeLookupCache(
+            model.get("negativeCacheTtl", SECONDS.toMillis(30)),
+            model.get("negativeCacheMaxSize", 100000)
+        );
+        CircuitBreaker circuitBreaker = new CircuitBreaker(
+            model.getName(),
+            model.get("breakerFailureThreshold", 5),
+            model.get("breakerSlowCallThreshold", SECONDS.toMillis(5)),
+            model.get("breakerOpenDuration", SECONDS.toMillis(10)),
+            model.get("breakerHalfOpenProbes", 1)
+        );
+        Bulkhead bulkhead = new Bulkhead(
+            model.getName(),
+            model.get("maxConcurrentQueries", model.get("poolSize", 50))
+        );
+        PasswordHashingExecutor passwordHashingExecutor = new PasswordHashingExecutor(
+            model.getName(),
+            model.get("hashingThreads", Runtime.getRuntime().availableProcessors()),
+            model.get("hashingQueueSize", 100),
+            model.get("hashingMaxWait", SECONDS.toMillis(10)),
+            metrics.getPasswordVerificationTimer()
+        );
+        return new ProviderConfig(version, dataSourceProvider, queryConfigurations, registrantCache,
+                negativeLookupCache, passwordHashingExecutor, keysetCursorCache, userCountCache, circuitBreaker,
+                bulkhead, metrics);
+    }
+
+    private static List<String> parseList(String value) {
+        if (value == null || value.isBlank()) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toList());
     }
 
     @Override
     public void validateConfiguration(KeycloakSession session, RealmModel realm, ComponentModel model)
             throws ComponentValidationException {
         try {
-            ProviderConfig old = providerConfigPerInstance.put(model.getId(), configure(model));
-            if (old != null) {
-                old.dataSourceProvider.close();
-            }
+            providerConfigs.validate(session, model);
         } catch (Exception e) {
             throw new ComponentValidationException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Release the pools and the metrics of a removed component.
+     */
+    @Override
+    public void preRemove(KeycloakSession session, RealmModel realm, ComponentModel model) {
+        providerConfigs.remove(model);
+    }
+
+    /**
+     * Nothing is imported from the registry; triggering a synchronization of the component (from the
+     * admin console or the admin REST API) drops its caches so newly registered beneficiaries can log
+     * in without waiting for remembered misses to expire.
+     */
+    @Override
+    public SynchronizationResult sync(KeycloakSessionFactory sessionFactory, String realmId,
+            UserStorageProviderModel model) {
+        invalidateCaches(model);
+        return SynchronizationResult.empty();
+    }
+
+    @Override
+    public SynchronizationResult syncSince(Date lastSync, KeycloakSessionFactory sessionFactory, String realmId,
+            UserStorageProviderModel model) {
+        invalidateCaches(model);
+        return SynchronizationResult.empty();
+    }
+
+    private void invalidateCaches(ComponentModel model) {
+        ProviderConfig providerConfig = providerConfigs.find(model.getId());
+        if (providerConfig != null) {
+            log.info("Invalidating caches for model: id={} name={}", model.getId(), model.getName());
+            providerConfig.invalidateCaches();
+        }
+    }
+
     @Override
     public String getId() {
         return OpenSPPUserStorageProviderFactory.id;
@@ -107,6 +324,29 @@ public class OpenSPPUserStorageProviderFactory implements UserStorageProviderFac
                 .defaultValue("jdbc:postgresql://172.17.0.1:15432/devel")
                 .add();
 
+        pcBuilder.property()
+                .name("replicaUrls")
+                .label("Replica JDBC URLs")
+                .helpText("Comma separated JDBC connection strings of read replicas of the database, reached with the same user and password. Every query is read only, so each one goes to the healthy replica with the fewest connections in use, or to the primary when no replica is healthy.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .add();
+
+        pcBuilder.property()
+                .name("maxReplicationLag")
+                .label("Max Replication Lag")
+                .helpText("Maximum number of milliseconds a replica may lag the primary and still serve reads.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(5))
+                .add();
+
+        pcBuilder.property()
+                .name("replicaCheckInterval")
+                .label("Replica Check Interval")
+                .helpText("Number of milliseconds between two checks of the health and replication lag of the replicas.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(5))
+                .add();
+
         pcBuilder.property()
                 .name("user")
                 .label("JDBC Connection User")
@@ -163,12 +403,304 @@ public class OpenSPPUserStorageProviderFactory implements UserStorageProviderFac
                 .defaultValue(MINUTES.toMillis(30))
                 .add();
 
-        return pcBuilder.build();
-    }
+        pcBuilder.property()
+                .name("poolDrainTimeout")
+                .label("Pool Drain Timeout")
+                .helpText("When the configuration is saved, the new pool opens and warms its minimum idle connections before it replaces the old one. The old pool closes once its borrowed connections are returned, or after this many milliseconds. The old password hashing threads keep verifying for this many milliseconds too.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(30))
+                .add();
+
+        pcBuilder.property()
+                .name("prepareThreshold")
+                .label("Prepare Threshold")
+                .helpText("Number of executions of a query on a connection before the PostgreSQL driver prepares it on the server and reuses its plan. 1 prepares every query on first use, 0 disables server side prepared statements.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(1)
+                .add();
+
+        pcBuilder.property()
+                .name("preparedStatementCacheQueries")
+                .label("Prepared Statement Cache Queries")
+                .helpText("Number of prepared queries the PostgreSQL driver keeps per connection.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(256)
+                .add();
+
+        pcBuilder.property()
+                .name("preparedStatementCacheSizeMiB")
+                .label("Prepared Statement Cache Size")
+                .helpText("Maximum size in MiB of the prepared queries the PostgreSQL driver keeps per connection.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(5)
+                .add();
+
+        // Attributes
+
+        pcBuilder.property()
+                .name("attributes")
+                .label("Attributes")
+                .helpText("Comma separated registry columns loaded as user attributes, among email, phone, first_name, last_name, full_name, is_group, active_group, kind_name, id_type_name, id_type_value, group_membership_kind_name and group_membership_is_ended. The id, username and row version are always loaded. Listings and searches only load the email and names among them. Fewer columns spare the database the joins of the registrant view producing the others. Include phone when users log in with an SMS code. Leave empty to load every column.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .add();
+
+        pcBuilder.property()
+                .name(READ_ONLY_ATTRIBUTES)
+                .label("Read-only Attributes")
+                .helpText("Serve the registrant columns as user attributes straight from the database row instead of copying them into the Keycloak database each time a user is loaded.")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .defaultValue(true)
+                .add();
+
+        pcBuilder.property()
+                .name(FEDERATED_ATTRIBUTES)
+                .label("Include Keycloak Attributes")
+                .helpText("With read-only attributes, also list the attributes Keycloak stored for registry users in its own database (for example the locale chosen in the account console) next to the registrant columns. Reading them costs a Keycloak database query each time the attributes of a user are listed. Single attributes are always read from Keycloak when they are not registrant columns.")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .defaultValue(false)
+                .add();
+
+        // Cache
+
+        pcBuilder.property()
+                .name("cacheTtl")
+                .label("Cache TTL")
+                .helpText("Time in milliseconds a registrant loaded by id or username is served from the shared cache of this provider. Set to 0 to disable the cache.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(60))
+                .add();
 
-    private static class ProviderConfig {
-        private DataSourceProvider dataSourceProvider = new DataSourceProvider();
-        private QueryConfigurations queryConfigurations;
+        pcBuilder.property()
+                .name("cacheMaxSize")
+                .label("Cache Max Size")
+                .helpText("Maximum number of registrants kept in the shared cache per lookup key. Set to 0 to disable the cache.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(10000)
+                .add();
+
+        pcBuilder.property()
+                .name("negativeCacheTtl")
+                .label("Negative Cache TTL")
+                .helpText("Time in milliseconds an unknown username, or unknown household number, UID and phone number combination is answered as not found without querying the database. Synchronizing the provider clears it. Set to 0 to disable.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(30))
+                .add();
+
+        pcBuilder.property()
+                .name("negativeCacheMaxSize")
+                .label("Negative Cache Max Size")
+                .helpText("Maximum number of unknown lookups remembered per lookup kind. Set to 0 to disable the negative cache.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(100000)
+                .add();
+
+        // Resilience
+
+        pcBuilder.property()
+                .name("breakerFailureThreshold")
+                .label("Circuit Breaker Failure Threshold")
+                .helpText("Number of consecutive failed or slow database calls after which lookups fail immediately for the open duration instead of waiting on the database. Set to 0 to disable the circuit breaker.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(5)
+                .add();
+
+        pcBuilder.property()
+                .name("breakerSlowCallThreshold")
+                .label("Circuit Breaker Slow Call Threshold")
+                .helpText("Duration in milliseconds, waiting for a connection included, above which a database call counts as failed. Set to 0 to only count errors.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(5))
+                .add();
+
+        pcBuilder.property()
+                .name("breakerOpenDuration")
+                .label("Circuit Breaker Open Duration")
+                .helpText("Time in milliseconds lookups fail immediately once the circuit opened, before probe calls test the database again.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(10))
+                .add();
+
+        pcBuilder.property()
+                .name("breakerHalfOpenProbes")
+                .label("Circuit Breaker Probe Calls")
+                .helpText("Number of concurrent calls let through to test the database after the open duration. A successful probe closes the circuit, a failed one opens it again.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(1)
+                .add();
+
+        pcBuilder.property()
+                .name("maxConcurrentQueries")
+                .label("Max Concurrent Queries")
+                .helpText("Maximum number of threads querying the database at once, waiting for a connection included. Further lookups fail immediately. Defaults to the max pool size, set to 0 for no limit.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(50)
+                .add();
+
+        // Timeouts
+
+        pcBuilder.property()
+                .name("lookupQueryTimeout")
+                .label("Lookup Query Timeout")
+                .helpText("Milliseconds a user lookup by id or username may run before it is cancelled on the database, rounded up to whole seconds. The session also carries the exact value as statement_timeout. Set to 0 for no limit.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(5))
+                .add();
+
+        pcBuilder.property()
+                .name("beneficiaryQueryTimeout")
+                .label("Beneficiary Query Timeout")
+                .helpText("Milliseconds the household lookup of the beneficiary login form may run before it is cancelled on the database, rounded up to whole seconds. The session also carries the exact value as statement_timeout. Set to 0 for no limit.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(5))
+                .add();
+
+        pcBuilder.property()
+                .name("hashQueryTimeout")
+                .label("Password Hash Query Timeout")
+                .helpText("Milliseconds a password hash lookup may run before it is cancelled on the database, rounded up to whole seconds. The session also carries the exact value as statement_timeout. Set to 0 for no limit.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(5))
+                .add();
+
+        pcBuilder.property()
+                .name("searchQueryTimeout")
+                .label("Search Query Timeout")
+                .helpText("Milliseconds an admin console user listing or search may run before it is cancelled on the database, rounded up to whole seconds. The session also carries the exact value as statement_timeout. Set to 0 for no limit.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(30))
+                .add();
+
+        pcBuilder.property()
+                .name("countQueryTimeout")
+                .label("Count Query Timeout")
+                .helpText("Milliseconds an admin console user count may run before it is cancelled on the database, rounded up to whole seconds. The session also carries the exact value as statement_timeout. Set to 0 for no limit.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(30))
+                .add();
+
+        // Password hashing
+
+        pcBuilder.property()
+                .name("hashingThreads")
+                .label("Password Hashing Threads")
+                .helpText("Number of threads verifying password hashes. Verifications never run on the request threads, so a login storm cannot take over every CPU core.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(Runtime.getRuntime().availableProcessors())
+                .add();
+
+        pcBuilder.property()
+                .name("hashingQueueSize")
+                .label("Password Hashing Queue Size")
+                .helpText("Number of password verifications allowed to wait for a hashing thread. When the queue is full the login fails fast and the user is asked to try again.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(100)
+                .add();
+
+        pcBuilder.property()
+                .name("hashingMaxWait")
+                .label("Password Hashing Max Wait")
+                .helpText("Maximum number of milliseconds a login waits for its password verification, queueing included, before the user is asked to try again.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(10))
+                .add();
+
+        // Queries
+
+        pcBuilder.property()
+                .name(PIN_CONNECTION)
+                .label("Pin Session Connection")
+                .helpText("Borrow one read-only connection on the first query of a Keycloak session and keep it until the session ends, instead of borrowing a connection from the pool for every query. Streamed listings still use their own connection. Size the pool for the number of concurrent sessions when enabled.")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .defaultValue(false)
+                .add();
+
+        pcBuilder.property()
+                .name("fetchSize")
+                .label("Stream Fetch Size")
+                .helpText("Number of rows fetched per round trip when streaming user listings and searches from a database cursor. Set to 0 to load each page into memory at once.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(100)
+                .add();
+
+        pcBuilder.property()
+                .name("searchMode")
+                .label("Search Mode")
+                .helpText("How the admin console search term matches the username, email and full name. 'contains' matches anywhere and scans the registry. 'exact' and 'prefix' are served by B-tree indexes, 'text_pattern_ops' ones for 'prefix'. 'trigram' uses pg_trgm word similarity and needs the pg_trgm extension and trigram indexes.")
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .options(SearchMode.CONTAINS.getDesc(), SearchMode.EXACT.getDesc(), SearchMode.PREFIX.getDesc(),
+                        SearchMode.TRIGRAM.getDesc())
+                .defaultValue(SearchMode.CONTAINS.getDesc())
+                .add();
+
+        pcBuilder.property()
+                .name("identifierPattern")
+                .label("Identifier Search Pattern")
+                .helpText("Regular expression of search terms looked up exactly on the ID number and phone number instead of the search mode. Leave empty to search every term with the search mode.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_IDENTIFIER_PATTERN)
+                .add();
+
+        pcBuilder.property()
+                .name("paginationMode")
+                .label("Pagination Mode")
+                .helpText("How user listings and searches are paged. 'offset' skips rows with OFFSET. 'keyset' lists each partner once, ordered by id, and starts the page following one already served after its last id, so browsing deep pages stays an index range scan; other pages fall back to an ordered OFFSET.")
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .options(PaginationMode.OFFSET.getDesc(), PaginationMode.KEYSET.getDesc())
+                .defaultValue(PaginationMode.OFFSET.getDesc())
+                .add();
+
+        pcBuilder.property()
+                .name("keysetCursorTtl")
+                .label("Keyset Cursor TTL")
+                .helpText("Time in milliseconds the last id of a served page is remembered for the page following it. Synchronizing the provider clears it.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(MINUTES.toMillis(10))
+                .add();
+
+        pcBuilder.property()
+                .name("keysetCursorMaxSize")
+                .label("Keyset Cursor Max Size")
+                .helpText("Maximum number of page cursors remembered. Set to 0 to always page with an ordered OFFSET in keyset mode.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(10000)
+                .add();
+
+        // Counts
+
+        pcBuilder.property()
+                .name("countMode")
+                .label("Count Mode")
+                .helpText("How users are counted. 'exact' counts every registrant and every search match. 'estimated' reads the total from the row estimate of the database planner statistics without scanning the registry, and caps search counts. 'capped' stops counting the total and search matches past the count cap.")
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .options(CountMode.EXACT.getDesc(), CountMode.ESTIMATED.getDesc(), CountMode.CAPPED.getDesc())
+                .defaultValue(CountMode.EXACT.getDesc())
+                .add();
+
+        pcBuilder.property()
+                .name("searchCountCap")
+                .label("Count Cap")
+                .helpText("With the 'estimated' and 'capped' count modes, stop counting users after this many. The admin console then shows one more than the cap, 1001 for a cap of 1000, meaning more than the cap. Set to 0 to count every user.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(1000)
+                .add();
+
+        pcBuilder.property()
+                .name("countCacheTtl")
+                .label("Count Cache TTL")
+                .helpText("Time in milliseconds a user count is served from the cache, per search term. Synchronizing the provider clears it. Set to 0 to count on every request.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(SECONDS.toMillis(60))
+                .add();
+
+        pcBuilder.property()
+                .name("countCacheMaxSize")
+                .label("Count Cache Max Size")
+                .helpText("Maximum number of search terms whose count is cached. Set to 0 to disable the count cache.")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(1000)
+                .add();
+
+        return pcBuilder.build();
     }
 
 }
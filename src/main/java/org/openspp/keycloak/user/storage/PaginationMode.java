@@ -0,0 +1,38 @@
+package org.openspp.keycloak.user.storage;
+
+/**
+ * How the admin console listing and search are paged.
+ */
+public enum PaginationMode {
+
+    /**
+     * LIMIT and OFFSET on the query as configured. Deep pages make the database build and discard every
+     * earlier row.
+     */
+    OFFSET("offset"),
+
+    /**
+     * Pages ordered by id. A page following one already served seeks past the last id of that page, other
+     * pages fall back to an ordered OFFSET.
+     */
+    KEYSET("keyset");
+
+    private final String desc;
+
+    PaginationMode(String desc) {
+        this.desc = desc;
+    }
+
+    public static PaginationMode getByDescription(String desc) {
+        for (PaginationMode value : values()) {
+            if (value.desc.equalsIgnoreCase(desc)) {
+                return value;
+            }
+        }
+        return OFFSET;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+}
@@ -0,0 +1,107 @@
+package org.openspp.keycloak.user.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.keycloak.component.ComponentModel;
+import org.openspp.keycloak.user.storage.util.Bulkhead;
+import org.openspp.keycloak.user.storage.util.CircuitBreaker;
+import org.openspp.keycloak.user.storage.util.PasswordHashingExecutor;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * State shared by all sessions of one version of a configured provider component. A snapshot is never
+ * changed once built: saving the component with a different configuration builds a new version.
+ */
+class ProviderConfig {
+    final long version;
+    final DataSourceProvider dataSourceProvider;
+    final QueryConfigurations queryConfigurations;
+    final RegistrantCache registrantCache;
+    final NegativeLookupCache negativeLookupCache;
+    final PasswordHashingExecutor passwordHashingExecutor;
+    final KeysetCursorCache keysetCursorCache;
+    final UserCountCache userCountCache;
+    final CircuitBreaker circuitBreaker;
+    final Bulkhead bulkhead;
+    // Owned by the registry, it outlives this configuration.
+    final RegistryMetrics metrics;
+
+    ProviderConfig(long version, DataSourceProvider dataSourceProvider,
+            QueryConfigurations queryConfigurations, RegistrantCache registrantCache,
+            NegativeLookupCache negativeLookupCache, PasswordHashingExecutor passwordHashingExecutor,
+            KeysetCursorCache keysetCursorCache, UserCountCache userCountCache, CircuitBreaker circuitBreaker,
+            Bulkhead bulkhead, RegistryMetrics metrics) {
+        this.version = version;
+        this.dataSourceProvider = dataSourceProvider;
+        this.queryConfigurations = queryConfigurations;
+        this.registrantCache = registrantCache;
+        this.negativeLookupCache = negativeLookupCache;
+        this.passwordHashingExecutor = passwordHashingExecutor;
+        this.keysetCursorCache = keysetCursorCache;
+        this.userCountCache = userCountCache;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Hash of the name of the component and of the values of the given configuration keys. Entries Keycloak
+     * manages itself, such as the time of the last sync, are left out so saving them keeps the version.
+     */
+    static String fingerprint(ComponentModel model, Collection<String> keys) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, model.getName());
+        for (String key : new TreeSet<>(keys)) {
+            putString(hasher, key);
+            List<String> values = model.getConfig().get(key);
+            if (values == null) {
+                hasher.putInt(-1);
+                continue;
+            }
+            hasher.putInt(values.size());
+            for (String value : values) {
+                putString(hasher, value);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    // Length prefixed, so no two configurations hash the same bytes.
+    private static void putString(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, UTF_8);
+        }
+    }
+
+    /**
+     * Forget every cached registrant and every remembered miss, e.g. after registrants were
+     * created or changed in the registry.
+     */
+    void invalidateCaches() {
+        registrantCache.invalidateAll();
+        negativeLookupCache.invalidateAll();
+        keysetCursorCache.invalidateAll();
+        userCountCache.invalidateAll();
+    }
+
+    void close(String name) {
+        registrantCache.logStats(name);
+        negativeLookupCache.logStats(name);
+        keysetCursorCache.logStats(name);
+        userCountCache.logStats(name);
+        circuitBreaker.logStats();
+        bulkhead.logStats();
+        passwordHashingExecutor.logStats(name);
+        // Drained on the grace period of the pools, like them.
+        passwordHashingExecutor.close(dataSourceProvider.getDrainTimeout());
+        dataSourceProvider.close();
+    }
+}
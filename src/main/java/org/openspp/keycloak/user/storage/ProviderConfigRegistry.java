@@ -0,0 +1,314 @@
+package org.openspp.keycloak.user.storage;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.provider.ProviderConfigProperty;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Current configuration snapshot of each provider component, and the metrics of the component. Looking up
+ * the snapshot of an unchanged component is lock-free. Each version of a component is configured once, and
+ * never by a request: saving the component configures and warms the new version while validating it, then
+ * swaps it in once the component is saved. A node that did not save it, e.g. another node of the cluster,
+ * configures the new version in the background when it first sees it, and keeps serving the current snapshot
+ * until the new one is warm. The snapshot it replaces is closed once the new one is published.
+ */
+@Slf4j
+class ProviderConfigRegistry {
+
+    @FunctionalInterface
+    interface Configurer {
+        ProviderConfig configure(ComponentModel model, long version, RegistryMetrics metrics);
+    }
+
+    /**
+     * Snapshot in service, with the fingerprint of the configuration it was built from.
+     */
+    private static final class Snapshot {
+        private final String fingerprint;
+        private final ProviderConfig config;
+
+        Snapshot(String fingerprint, ProviderConfig config) {
+            this.fingerprint = fingerprint;
+            this.config = config;
+        }
+    }
+
+    private final ConcurrentMap<String, Snapshot> configs = new ConcurrentHashMap<>();
+    // Versions being configured, keyed by component id and fingerprint.
+    private final ConcurrentMap<String, CompletableFuture<ProviderConfig>> builds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RegistryMetrics> metrics = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<>();
+    // Held while a snapshot is published or removed, one per component id.
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "openspp-configure-" + threadNumber.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private final Configurer configurer;
+    private final Set<String> keys;
+
+    /**
+     * @param properties configuration properties of the provider, the only entries a version depends on.
+     */
+    ProviderConfigRegistry(Configurer configurer, List<ProviderConfigProperty> properties) {
+        this.configurer = configurer;
+        this.keys = properties.stream().map(ProviderConfigProperty::getName).collect(Collectors.toSet());
+    }
+
+    /**
+     * @return the snapshot in service for the component. A changed component keeps it until its new version is
+     *         configured in the background; only the first snapshot of a component is waited for.
+     */
+    ProviderConfig get(ComponentModel model) {
+        String fingerprint = fingerprint(model);
+        Snapshot current = configs.get(model.getId());
+        if (current != null && current.fingerprint.equals(fingerprint)) {
+            return current.config;
+        }
+        CompletableFuture<ProviderConfig> next = build(model, fingerprint);
+        if (current != null) {
+            return current.config;
+        }
+        return await(next);
+    }
+
+    private String fingerprint(ComponentModel model) {
+        return ProviderConfig.fingerprint(model, keys);
+    }
+
+    /**
+     * @return the version of the component being configured, started on the background threads unless a
+     *         concurrent caller already did.
+     */
+    private CompletableFuture<ProviderConfig> build(ComponentModel model, String fingerprint) {
+        String key = buildKey(model.getId(), fingerprint);
+        CompletableFuture<ProviderConfig> created = new CompletableFuture<>();
+        CompletableFuture<ProviderConfig> running = builds.putIfAbsent(key, created);
+        if (running != null) {
+            return running;
+        }
+        // The request goes on with its own model.
+        ComponentModel copy = new ComponentModel(model);
+        try {
+            executor.execute(() -> {
+                ProviderConfig next;
+                try {
+                    next = configure(copy);
+                } catch (RuntimeException e) {
+                    log.error("Failed to configure provider {}: {}", copy.getName(), e.getMessage(), e);
+                    fail(copy.getId(), key, created, e);
+                    return;
+                }
+                publish(copy, fingerprint, key, created, next);
+            });
+        } catch (RejectedExecutionException e) {
+            fail(copy.getId(), key, created, e);
+        }
+        return created;
+    }
+
+    /**
+     * Configure the component as it is about to be saved, which fails when its database cannot be reached.
+     * The new version is configured and warmed here, on the thread saving the component, and swapped in once
+     * the component is saved, or closed when the save is rolled back. Saving the component with an unchanged
+     * configuration, e.g. to record the time of its last sync, configures nothing.
+     */
+    void validate(KeycloakSession session, ComponentModel model) {
+        if (model.getId() == null) {
+            // Keycloak saves a new component under the id it already has, so the version configured here gets
+            // the metrics of the component and is published under its id. Keycloak ids are random UUIDs too.
+            model.setId(UUID.randomUUID().toString());
+        }
+        String id = model.getId();
+        String fingerprint = fingerprint(model);
+        Snapshot current = configs.get(id);
+        if (current != null && current.fingerprint.equals(fingerprint)) {
+            return;
+        }
+        String key = buildKey(id, fingerprint);
+        CompletableFuture<ProviderConfig> created = new CompletableFuture<>();
+        CompletableFuture<ProviderConfig> running = builds.putIfAbsent(key, created);
+        if (running != null) {
+            // Configured in the background already, its outcome validates the component.
+            await(running);
+            return;
+        }
+        ComponentModel copy = new ComponentModel(model);
+        ProviderConfig next;
+        try {
+            next = configure(copy);
+        } catch (RuntimeException e) {
+            fail(id, key, created, e);
+            throw e;
+        }
+        session.getTransactionManager().enlistAfterCompletion(new AbstractKeycloakTransaction() {
+            @Override
+            protected void commitImpl() {
+                publish(copy, fingerprint, key, created, next);
+            }
+
+            @Override
+            protected void rollbackImpl() {
+                log.info("Provider {} was not saved, closing its new configuration", copy.getName());
+                builds.remove(key, created);
+                next.close(copy.getName());
+                discardMetrics(id);
+                created.completeExceptionally(
+                        new IllegalStateException("Provider " + copy.getName() + " was not saved"));
+            }
+        });
+    }
+
+    private ProviderConfig configure(ComponentModel model) {
+        String id = model.getId();
+        long version = versions.merge(id, 1L, Long::sum);
+        log.info("Configuring provider: id={} name={} version={}", id, model.getName(), version);
+        return configurer.configure(model, version,
+                metrics.computeIfAbsent(id, key -> new RegistryMetrics(key, model.getName())));
+    }
+
+    /**
+     * Swap the configured version in and close the one it replaces. The version is closed instead when the
+     * component was removed meanwhile, or when a later version is already in service.
+     */
+    private void publish(ComponentModel model, String fingerprint, String key,
+            CompletableFuture<ProviderConfig> build, ProviderConfig next) {
+        String id = model.getId();
+        boolean removed = false;
+        Snapshot current;
+        synchronized (lock(id)) {
+            if (!builds.remove(key, build)) {
+                removed = true;
+                current = null;
+            } else {
+                current = configs.get(id);
+                if (current == null || current.config.version < next.version) {
+                    configs.put(id, new Snapshot(fingerprint, next));
+                    next.metrics.bind(next);
+                }
+            }
+        }
+        if (removed) {
+            next.close(model.getName());
+            discardMetrics(id);
+            build.completeExceptionally(
+                    new IllegalStateException("Provider " + model.getName() + " was removed while configuring"));
+            return;
+        }
+        if (current != null && current.config.version > next.version) {
+            log.info("Discarding provider configuration: id={} name={} version={}, version {} is in service", id,
+                    model.getName(), next.version, current.config.version);
+            next.close(model.getName());
+            build.complete(current.config);
+            return;
+        }
+        build.complete(next);
+        if (current != null) {
+            log.info("Replaced provider configuration: id={} name={} version={}", id, model.getName(),
+                    current.config.version);
+            next.metrics.recordPoolSwap();
+            current.config.close(model.getName());
+        }
+    }
+
+    private void fail(String id, String key, CompletableFuture<ProviderConfig> build, RuntimeException e) {
+        builds.remove(key, build);
+        discardMetrics(id);
+        build.completeExceptionally(e);
+    }
+
+    /**
+     * Close the metrics of a component with neither a snapshot nor a version being configured, e.g. one whose
+     * creation failed or was removed while configuring.
+     */
+    private void discardMetrics(String id) {
+        RegistryMetrics discarded = null;
+        synchronized (lock(id)) {
+            String prefix = buildKey(id, "");
+            if (!configs.containsKey(id) && builds.keySet().stream().noneMatch(key -> key.startsWith(prefix))) {
+                discarded = metrics.remove(id);
+            }
+        }
+        if (discarded != null) {
+            discarded.close();
+        }
+    }
+
+    private static ProviderConfig await(CompletableFuture<ProviderConfig> build) {
+        try {
+            return build.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while configuring the provider", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+    }
+
+    private static String buildKey(String id, String fingerprint) {
+        return id + "/" + fingerprint;
+    }
+
+    private Object lock(String id) {
+        return locks.computeIfAbsent(id, key -> new Object());
+    }
+
+    /**
+     * @return the current snapshot of the component, or null when it was not configured yet.
+     */
+    ProviderConfig find(String id) {
+        Snapshot snapshot = configs.get(id);
+        return snapshot != null ? snapshot.config : null;
+    }
+
+    /**
+     * Close the snapshot and the metrics of a removed component. Versions still being configured are closed as
+     * they complete.
+     */
+    void remove(ComponentModel model) {
+        String id = model.getId();
+        Snapshot snapshot;
+        RegistryMetrics removed;
+        synchronized (lock(id)) {
+            String prefix = buildKey(id, "");
+            builds.keySet().removeIf(key -> key.startsWith(prefix));
+            snapshot = configs.remove(id);
+            removed = metrics.remove(id);
+        }
+        if (snapshot != null) {
+            snapshot.config.close(model.getName());
+        }
+        if (removed != null) {
+            removed.close();
+        }
+    }
+
+    void close() {
+        // Versions still being configured are closed as they complete.
+        builds.clear();
+        executor.shutdown();
+        configs.forEach((id, snapshot) -> snapshot.config.close(id));
+        configs.clear();
+        metrics.values().forEach(RegistryMetrics::close);
+        metrics.clear();
+    }
+}
@@ -1,8 +1,60 @@
 package org.openspp.keycloak.user.storage;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 public class Query {
     public final static String DATABASE = "spp_partner_oidc";
 
+    /**
+     * Columns every user query selects: they identify the registrant and version its row.
+     */
+    public final static List<String> KEY_COLUMNS = List.of("id", "partner_id", "username", "write_date");
+
+    /**
+     * Columns of the view that can be mapped as user attributes, in the order they are selected.
+     */
+    public final static List<String> ATTRIBUTE_COLUMNS = List.of("email", "phone", "first_name", "last_name",
+            "full_name", "is_group", "active_group", "kind_name", "id_type_name", "id_type_value",
+            "group_membership_kind_name", "group_membership_is_ended");
+
+    /**
+     * Attribute columns the admin console shows in user listings and search results.
+     */
+    public final static List<String> SEARCH_COLUMNS = List.of("email", "first_name", "last_name", "full_name");
+
+    /**
+     * Select list of the key columns and of the given attribute columns. Each column the view does not
+     * have to compute saves it the join that produces the column.
+     *
+     * @throws IllegalArgumentException when an attribute is not a column of the view.
+     */
+    public static String getColumns(Collection<String> attributes) {
+        for (String attribute : attributes) {
+            if (!ATTRIBUTE_COLUMNS.contains(attribute) && !KEY_COLUMNS.contains(attribute)) {
+                throw new IllegalArgumentException("Unknown attribute column: " + attribute);
+            }
+        }
+        List<String> columns = new ArrayList<>(List.of("id", "id AS partner_id", "username"));
+        for (String column : ATTRIBUTE_COLUMNS) {
+            if (attributes.contains(column)) {
+                columns.add(column);
+            }
+        }
+        columns.add("write_date");
+        return String.join(", ", columns);
+    }
+
+    /**
+     * Select list of user listings and searches: the key columns and the listed attributes among the given ones.
+     */
+    public static String getSearchColumns(Collection<String> attributes) {
+        List<String> columns = new ArrayList<>(SEARCH_COLUMNS);
+        columns.retainAll(attributes);
+        return getColumns(columns);
+    }
+
     public static String getCount() {
         String query = """
             SELECT COUNT(*) FROM %s
@@ -10,125 +62,143 @@ public class Query {
         return String.format(query, DATABASE);
     }
 
-    public static String getListAll() {
+    /**
+     * Number of partners, each counted once however many rows the view has for it.
+     */
+    public static String getCountPartners() {
         String query = """
-            SELECT
-                id,
-                id AS partner_id,
-                username,
-                email,
-                phone,
-                first_name,
-                last_name,
-                full_name,
-                active_group
-            FROM %s
+            SELECT COUNT(DISTINCT id) FROM %s
         """;
         return String.format(query, DATABASE);
     }
 
+    /**
+     * Planner row estimate of the view, read from the table statistics without scanning the tables.
+     */
+    public static String getCountEstimate() {
+        String query = """
+            EXPLAIN (FORMAT JSON) SELECT id FROM %s
+        """;
+        return String.format(query, DATABASE);
+    }
+
+    public static String getListAll() {
+        return getListAll(getSearchColumns(ATTRIBUTE_COLUMNS));
+    }
+
+    public static String getListAll(String columns) {
+        String query = """
+            SELECT %s FROM %s
+        """;
+        return String.format(query, columns, DATABASE);
+    }
+
     public static String getFindById() {
+        return getFindById(getColumns(ATTRIBUTE_COLUMNS));
+    }
+
+    public static String getFindById(String columns) {
         String query = """
-            SELECT
-                id,
-                id AS partner_id,
-                username,
-                email,
-                phone,
-                first_name,
-                last_name,
-                full_name,
-                active_group
-            FROM %s
+            SELECT %s FROM %s
             WHERE
                 \"id\" = ?
         """;
-        return String.format(query, DATABASE);
+        return String.format(query, columns, DATABASE);
     }
 
     public static String getFindByUsername() {
+        return getFindByUsername(getColumns(ATTRIBUTE_COLUMNS));
+    }
+
+    public static String getFindByUsername(String columns) {
         String query = """
-            SELECT
-                id,
-                id AS partner_id,
-                username,
-                email,
-                phone,
-                first_name,
-                last_name,
-                full_name,
-                is_group,
-                active_group,
-                kind_name,
-                id_type_name,
-                id_type_value,
-                group_membership_kind_name,
-                group_membership_is_ended
-            FROM %s
+            SELECT %s FROM %s
             WHERE
                 \"username\" = ?
         """;
-        return String.format(query, DATABASE);
+        return String.format(query, columns, DATABASE);
     }
 
     public static String getFindByBeneficiaryForm() {
+        return getFindByBeneficiaryForm(getColumns(ATTRIBUTE_COLUMNS));
+    }
+
+    public static String getFindByBeneficiaryForm(String columns) {
         String query = """
-            SELECT
-                id,
-                id AS partner_id,
-                username,
-                email,
-                phone,
-                first_name,
-                last_name,
-                full_name,
-                is_group,
-                active_group,
-                kind_name,
-                id_type_name,
-                id_type_value,
-                group_membership_kind_name,
-                group_membership_is_ended
-            FROM %s
+            SELECT %1$s FROM %2$s
             WHERE
                 \"group_membership_is_ended\" = false AND
                 \"group_membership_kind_name\" = 'Head' AND
                 \"id_type_name\" = 'Unified ID' AND
                 \"id_type_value\" = ? AND
-                \"phone\" = ?
+                \"phone\" = ? AND
+                EXISTS (
+                    SELECT 1 FROM %2$s household
+                    WHERE household.\"username\" = ? AND household.\"is_group\"
+                )
+            LIMIT 1
         """;
-        return String.format(query, DATABASE);
+        return String.format(query, columns, DATABASE);
     }
 
     public static String getFindBySearchTerm() {
+        return getFindBySearchTerm(SearchMode.CONTAINS);
+    }
+
+    public static String getFindBySearchTerm(SearchMode mode) {
+        return getFindBySearchTerm(mode, getSearchColumns(ATTRIBUTE_COLUMNS));
+    }
+
+    public static String getFindBySearchTerm(SearchMode mode, String columns) {
+        switch (mode) {
+            case EXACT:
+                return getSearch(columns, "\"username\" = (?) or \"email\" = (?) or \"full_name\" = (?)");
+            case PREFIX:
+                return getSearch(columns, "\"username\" LIKE (?) or \"email\" LIKE (?) or \"full_name\" LIKE (?)");
+            case TRIGRAM:
+                return getSearch(columns, "(?) <% \"username\" or (?) <% \"email\" or (?) <% \"full_name\"");
+            default:
+                return getSearch(columns, "\"username\" ILIKE (?) or \"email\" ILIKE (?) or \"full_name\" ILIKE (?)");
+        }
+    }
+
+    public static String getFindByIdentifier() {
+        return getFindByIdentifier(getSearchColumns(ATTRIBUTE_COLUMNS));
+    }
+
+    /**
+     * Search terms that look like a phone number or an ID number, matched exactly on those columns.
+     */
+    public static String getFindByIdentifier(String columns) {
+        return getSearch(columns, "\"id_type_value\" = (?) or \"phone\" = (?) or \"phone_sanitized\" = (?)");
+    }
+
+    private static String getSearch(String columns, String predicate) {
         String query = """
-            SELECT
-                id,
-                id AS partner_id,
-                username,
-                email,
-                phone,
-                first_name,
-                last_name,
-                full_name,
-                active_group
-            FROM %s
+            SELECT %s FROM %s
             WHERE
-                \"username\" ILIKE (?) or \"email\" ILIKE (?) or \"full_name\" ILIKE (?)
+                %s
         """;
-        return String.format(query, DATABASE);
+        return String.format(query, columns, DATABASE, predicate);
     }
 
+    /**
+     * Credential envelope: the partner id, the password hash and the row version, in this order. Password
+     * checks never read the attribute columns.
+     */
     public static String getFindPasswordHash() {
         String query = """
-            SELECT password FROM %s WHERE \"username\" = ?
+            SELECT id, password, write_date FROM %s WHERE \"username\" = ?
         """;
         return String.format(query, DATABASE);
     }
 
+    /**
+     * Credential envelope looked up by ID number instead of username.
+     */
     public static String getFindPasswordHashAlt() {
         String query = """
-            SELECT password FROM %s WHERE \"id_type_value\" = ?
+            SELECT id, password, write_date FROM %s WHERE \"id_type_value\" = ?
         """;
         return String.format(query, DATABASE);
     }
@@ -1,31 +1,203 @@
 package org.openspp.keycloak.user.storage;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.openspp.keycloak.user.storage.util.Paginator;
+
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 @Data
 public class QueryConfigurations {
 
     private String count;
+    private String countEstimate;
     private String listAll;
     private String findById;
     private String findByUsername;
     private String findByBeneficiaryForm;
     private String findBySearchTerm;
+    private String findByIdentifier;
     private String findPasswordHash;
     private String findPasswordHashAlt;
     private JDBC JDBC;
+    private int fetchSize;
+    private PaginationMode paginationMode = PaginationMode.OFFSET;
+    private CountMode countMode = CountMode.EXACT;
+    private int searchCountCap;
+    private SearchMode searchMode = SearchMode.CONTAINS;
+    private Pattern identifierPattern;
+    private final Map<QueryKind, Long> queryTimeouts = new EnumMap<>(QueryKind.class);
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final ConcurrentMap<String, RowLayout> rowLayouts = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final ConcurrentMap<String, Paginator.PagedQuery> pagedQueries = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final ConcurrentMap<String, String> orderedQueries = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final ConcurrentMap<String, String> keysetQueries = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final ConcurrentMap<String, String> countQueries = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final ConcurrentMap<String, Integer> parameterCounts = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final ConcurrentMap<String, String> queryNames = new ConcurrentHashMap<>();
 
-    public QueryConfigurations(String count, String listAll, String findById, String findByUsername,
-            String findByBeneficiaryForm, String findBySearchTerm, String findPasswordHash, String findPasswordHashAlt,
-            JDBC jdbc) {
+    public QueryConfigurations(String count, String countEstimate, String listAll, String findById,
+            String findByUsername, String findByBeneficiaryForm, String findBySearchTerm, String findByIdentifier,
+            String findPasswordHash, String findPasswordHashAlt, JDBC jdbc) {
         this.count = count;
+        this.countEstimate = countEstimate;
         this.listAll = listAll;
         this.findById = findById;
         this.findByUsername = findByUsername;
         this.findByBeneficiaryForm = findByBeneficiaryForm;
         this.findBySearchTerm = findBySearchTerm;
+        this.findByIdentifier = findByIdentifier;
         this.findPasswordHash = findPasswordHash;
         this.findPasswordHashAlt = findPasswordHashAlt;
         this.JDBC = jdbc;
+        queryNames.put(count, "count");
+        queryNames.put(countEstimate, "countEstimate");
+        queryNames.put(listAll, "listAll");
+        queryNames.put(findById, "findById");
+        queryNames.put(findByUsername, "findByUsername");
+        queryNames.put(findByBeneficiaryForm, "findByBeneficiaryForm");
+        queryNames.put(findBySearchTerm, "findBySearchTerm");
+        queryNames.put(findByIdentifier, "findByIdentifier");
+        queryNames.put(findPasswordHash, "findPasswordHash");
+        queryNames.put(findPasswordHashAlt, "findPasswordHashAlt");
+        for (String query : new String[] { count, countEstimate, findById, findByUsername, findByBeneficiaryForm,
+                findPasswordHash, findPasswordHashAlt }) {
+            getParameterCount(query);
+        }
+        // Queries the admin console pages through.
+        for (String query : new String[] { listAll, findBySearchTerm, findByIdentifier }) {
+            getParameterCount(query);
+            getPagedQuery(query);
+            getPagedQuery(getOrderedQuery(query));
+            getPagedQuery(getKeysetQuery(query));
+        }
+    }
+
+    /**
+     * @return true when the search term looks like a phone number or an ID number.
+     */
+    public boolean isIdentifier(String search) {
+        return identifierPattern != null && identifierPattern.matcher(search).matches();
+    }
+
+    /**
+     * @return timeout in milliseconds of the queries of the kind, 0 when they may run indefinitely.
+     */
+    public long getQueryTimeout(QueryKind kind) {
+        return queryTimeouts.getOrDefault(kind, 0L);
+    }
+
+    public void setQueryTimeout(QueryKind kind, long timeout) {
+        queryTimeouts.put(kind, Math.max(timeout, 0L));
+    }
+
+
+    /**
+     * One row per partner, ordered by id, so pages are stable and line up with keyset pages. The view joins
+     * the ID and phone numbers and the group memberships of a partner, so a partner may have several rows:
+     * the first of them in whole row order is kept, which makes the id a unique and total order.
+     */
+    public String getOrderedQuery(String query) {
+        return orderedQueries.computeIfAbsent(query,
+                q -> derive(q, String.format("SELECT DISTINCT ON (page.id) * FROM (%s) page ORDER BY page.id, page",
+                        q)));
+    }
+
+    /**
+     * The ordered query, starting after the id bound as its last parameter.
+     */
+    public String getKeysetQuery(String query) {
+        return keysetQueries.computeIfAbsent(query,
+                q -> derive(q, String.format("SELECT * FROM (%s) page WHERE page.id > ? ORDER BY page.id",
+                        getOrderedQuery(q))));
+    }
+
+    /**
+     * @return true when counts stop one past the count cap.
+     */
+    public boolean isCountCapped() {
+        return countMode != CountMode.EXACT && searchCountCap > 0;
+    }
+
+    /**
+     * Count of the matches of the query, stopping one past the count cap unless counts are exact. Keyset
+     * pages list each partner once, so they count partners instead of rows.
+     */
+    public String getCountQuery(String query) {
+        return countQueries.computeIfAbsent(query, q -> {
+            String rows = paginationMode == PaginationMode.KEYSET
+                    ? String.format("SELECT DISTINCT page.id FROM (%s) page", q)
+                    : q;
+            return derive(q, isCountCapped()
+                    ? String.format("SELECT COUNT(*) FROM (%s LIMIT %d) COUNT", rows, searchCountCap + 1)
+                    : String.format("SELECT COUNT(*) FROM (%s) COUNT", rows));
+        });
+    }
+
+    /**
+     * @return the derived query, named after the query it wraps.
+     */
+    private String derive(String query, String derived) {
+        queryNames.putIfAbsent(derived, getQueryName(query));
+        return derived;
+    }
+
+    /**
+     * @return name of the configured query, or of the query a derived form wraps, to tag its metrics with.
+     */
+    public String getQueryName(String query) {
+        return queryNames.getOrDefault(query, "other");
+    }
+
+    /**
+     * Number of positional parameters of the query, counted from its text on first use instead of asking
+     * the driver to describe the statement on every execution.
+     */
+    public int getParameterCount(String query) {
+        return parameterCounts.computeIfAbsent(query, Paginator::countParameters);
+    }
+
+    /**
+     * Paged form of the query, compiled on first use.
+     */
+    public Paginator.PagedQuery getPagedQuery(String query) {
+        return pagedQueries.computeIfAbsent(query, q -> Paginator.compile(q, JDBC));
+    }
+
+    /**
+     * Resolve the column layout of the query from the first result set it produces, then reuse it
+     * for every later execution of the same query.
+     */
+    public RowLayout getRowLayout(String query, ResultSet rs) throws SQLException {
+        RowLayout layout = rowLayouts.get(query);
+        if (layout == null) {
+            layout = RowLayout.of(rs.getMetaData());
+            RowLayout existing = rowLayouts.putIfAbsent(query, layout);
+            if (existing != null) {
+                layout = existing;
+            }
+        }
+        return layout;
     }
 }
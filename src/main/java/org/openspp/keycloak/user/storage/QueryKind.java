@@ -0,0 +1,42 @@
+package org.openspp.keycloak.user.storage;
+
+/**
+ * Kind of registry query, each with its own statement timeout.
+ */
+public enum QueryKind {
+
+    /**
+     * Registrant by id or username.
+     */
+    LOOKUP("lookup"),
+
+    /**
+     * Head of household by the beneficiary login form fields.
+     */
+    BENEFICIARY("beneficiary"),
+
+    /**
+     * Password hash of a user.
+     */
+    HASH("hash"),
+
+    /**
+     * User listing and search of the admin console.
+     */
+    SEARCH("search"),
+
+    /**
+     * User count of the admin console.
+     */
+    COUNT("count");
+
+    private final String desc;
+
+    QueryKind(String desc) {
+        this.desc = desc;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+}
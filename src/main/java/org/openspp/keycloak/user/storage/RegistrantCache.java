@@ -0,0 +1,102 @@
+package org.openspp.keycloak.user.storage;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registrant rows shared by every session of one provider component, keyed by partner id and by
+ * username. It sits below the Keycloak user cache, so repeated lookups of the same registrant
+ * (retries, OTP resends) do not go back to the database until the entry expires.
+ */
+@Slf4j
+public class RegistrantCache {
+
+    private final boolean enabled;
+    private final Cache<String, UserRow> byId;
+    private final Cache<String, UserRow> byUsername;
+
+    /**
+     * @param ttl     time in milliseconds an entry is served after it was loaded, 0 disables the cache.
+     * @param maxSize maximum number of entries per key type, 0 disables the cache.
+     */
+    public RegistrantCache(long ttl, long maxSize) {
+        this.enabled = ttl > 0 && maxSize > 0;
+        this.byId = newCache(ttl, maxSize);
+        this.byUsername = newCache(ttl, maxSize);
+    }
+
+    private static Cache<String, UserRow> newCache(long ttl, long maxSize) {
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(ttl, 0), MILLISECONDS)
+                .maximumSize(Math.max(maxSize, 0))
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public UserRow getById(String id) {
+        return enabled ? byId.getIfPresent(id) : null;
+    }
+
+    public UserRow getByUsername(String username) {
+        return enabled ? byUsername.getIfPresent(username) : null;
+    }
+
+    public void putById(UserRow row) {
+        if (enabled && row.getId() != null) {
+            byId.put(row.getId(), row);
+        }
+    }
+
+    /**
+     * Lookups by username and by id select the same profile columns, so the row also serves later lookups by id.
+     */
+    public void putByUsername(UserRow row) {
+        if (enabled && row.getUsername() != null) {
+            byUsername.put(row.getUsername(), row);
+            putById(row);
+        }
+    }
+
+    /**
+     * Forget a registrant that changed in the registry.
+     */
+    public void invalidate(String id, String username) {
+        if (id != null) {
+            byId.invalidate(id);
+        }
+        if (username != null) {
+            byUsername.invalidate(username);
+        }
+    }
+
+    public void invalidateAll() {
+        byId.invalidateAll();
+        byUsername.invalidateAll();
+    }
+
+    public CacheStats getStats() {
+        return byId.stats().plus(byUsername.stats());
+    }
+
+    public long size() {
+        return byId.size() + byUsername.size();
+    }
+
+    public void logStats(String name) {
+        if (enabled) {
+            CacheStats stats = getStats();
+            log.info("Registrant cache {}: size={} hits={} misses={} hitRate={} evictions={}", name, size(),
+                    stats.hitCount(), stats.missCount(), String.format("%.3f", stats.hitRate()),
+                    stats.evictionCount());
+        }
+    }
+}
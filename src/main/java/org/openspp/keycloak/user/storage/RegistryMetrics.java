@@ -0,0 +1,422 @@
+package org.openspp.keycloak.user.storage;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openspp.keycloak.user.storage.util.Bulkhead;
+import org.openspp.keycloak.user.storage.util.CircuitBreaker;
+
+import com.google.common.cache.CacheStats;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Metrics of one provider component, registered in the Micrometer global registry that Keycloak serves in
+ * the Prometheus format on its metrics endpoint, and as an MXBean. They live as long as the component:
+ * reconfiguring it binds the new configuration, whose gauges then report on the new pools and executors.
+ */
+@Slf4j
+public class RegistryMetrics implements RegistryMetricsMXBean, Closeable {
+
+    static final String QUERY = "openspp.registry.query";
+    static final String ROWS = "openspp.registry.rows";
+    static final String PASSWORD_VERIFICATION = "openspp.password.verification";
+    static final String POOL_WARM_UP = "openspp.registry.pool.warmup";
+    static final String POOL_DRAIN = "openspp.registry.pool.drain";
+    static final String POOL_SWAPS = "openspp.registry.pool.swaps";
+    static final String CACHE_REQUESTS = "openspp.cache.requests";
+    static final String CACHE_SIZE = "openspp.cache.size";
+    private static final String REGISTRANT_CACHE = "registrant";
+    // Timer of the connection wait time recorded by the HikariCP Micrometer tracker.
+    private static final String CONNECTION_ACQUIRE = "hikaricp.connections.acquire";
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final ConcurrentMap<String, Timer> queryTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DistributionSummary> rowSummaries = new ConcurrentHashMap<>();
+    private final List<Meter> meters = new ArrayList<>();
+    private final Timer passwordVerificationTimer;
+    private final Timer poolWarmUpTimer;
+    private final Counter poolSwapCounter;
+    private final ConcurrentMap<Boolean, Timer> poolDrainTimers = new ConcurrentHashMap<>();
+    private final ObjectName objectName;
+    private volatile ProviderConfig providerConfig;
+
+    public RegistryMetrics(String id, String name) {
+        this(Metrics.globalRegistry, id, name, true);
+    }
+
+    /**
+     * @param jmx whether to register the MBean of the component.
+     */
+    public RegistryMetrics(MeterRegistry registry, String id, String name, boolean jmx) {
+        this.registry = registry;
+        this.tags = Tags.of("component", id, "provider", name);
+        this.passwordVerificationTimer = register(Timer.builder(PASSWORD_VERIFICATION)
+                .description("Time spent verifying a PBKDF2 password hash, queueing excluded")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry));
+        this.poolWarmUpTimer = register(Timer.builder(POOL_WARM_UP)
+                .description("Time spent opening and warming the connections of a new pool before it went into service")
+                .tags(tags)
+                .register(registry));
+        this.poolSwapCounter = register(Counter.builder(POOL_SWAPS)
+                .description("Configurations whose pools replaced the pools of the previous configuration")
+                .tags(tags)
+                .register(registry));
+        gauge("openspp.registry.circuit.state", "Circuit breaker state: 0 closed, 1 open, 2 half open",
+                config -> config.circuitBreaker.getState().ordinal());
+        counter("openspp.registry.circuit.rejected", "Queries refused by the open circuit",
+                config -> config.circuitBreaker.getRejectedCount());
+        gauge("openspp.registry.bulkhead.concurrent", "Queries running or waiting for a connection",
+                config -> config.bulkhead.getConcurrentCalls());
+        counter("openspp.registry.bulkhead.rejected", "Queries refused by the bulkhead",
+                config -> config.bulkhead.getRejectedCount());
+        gauge("openspp.password.queue", "Password verifications waiting for a hashing thread",
+                config -> config.passwordHashingExecutor.getQueueDepth());
+        counter("openspp.password.rejected", "Password verifications refused because the queue was full",
+                config -> config.passwordHashingExecutor.getRejectedCount());
+        counter("openspp.password.timedout", "Password verifications abandoned after the maximum wait",
+                config -> config.passwordHashingExecutor.getTimedOutCount());
+        cache(REGISTRANT_CACHE, config -> config.registrantCache.getStats(),
+                config -> config.registrantCache.size());
+        for (NegativeLookupCache.Kind kind : NegativeLookupCache.Kind.values()) {
+            cache(negativeCacheName(kind), config -> config.negativeLookupCache.getStats(kind),
+                    config -> config.negativeLookupCache.size(kind));
+        }
+        this.objectName = jmx ? registerMBean(id, name) : null;
+    }
+
+
+    /**
+     * Report on the given configuration from now on.
+     */
+    void bind(ProviderConfig providerConfig) {
+        this.providerConfig = providerConfig;
+    }
+
+    /**
+     * Record the latency of a query, tagged with its kind, its name and whether it succeeded, failed or
+     * timed out.
+     */
+    public void recordQuery(QueryKind kind, String query, String outcome, long durationNanos) {
+        queryTimers.computeIfAbsent(kind.getDesc() + "/" + query + "/" + outcome, key -> register(
+                Timer.builder(QUERY)
+                        .description("Registry query latency, waiting for a connection included")
+                        .tags(tags)
+                        .tag("kind", kind.getDesc())
+                        .tag("query", query)
+                        .tag("outcome", outcome)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofMillis(1))
+                        .maximumExpectedValue(Duration.ofSeconds(60))
+                        .register(registry)))
+                .record(durationNanos, NANOSECONDS);
+    }
+
+    public void recordRows(String query, int rows) {
+        rowSummaries.computeIfAbsent(query, key -> register(
+                DistributionSummary.builder(ROWS)
+                        .description("Rows returned by a registry query")
+                        .baseUnit("rows")
+                        .tags(tags)
+                        .tag("query", query)
+                        .publishPercentileHistogram()
+                        .maximumExpectedValue(10000.0)
+                        .register(registry)))
+                .record(rows);
+    }
+
+    /**
+     * Record the warm-up of a new pool before it went into service.
+     */
+    public void recordPoolWarmUp(long warmUpNanos) {
+        poolWarmUpTimer.record(warmUpNanos, NANOSECONDS);
+    }
+
+    /**
+     * Record a new configuration replacing the previous one, whose pools then drain.
+     */
+    public void recordPoolSwap() {
+        poolSwapCounter.increment();
+    }
+
+    /**
+     * Record the time a replaced pool took to drain, and whether it closed with connections still borrowed.
+     */
+    public void recordPoolDrain(long durationNanos, boolean drained) {
+        poolDrainTimers.computeIfAbsent(drained, key -> register(
+                Timer.builder(POOL_DRAIN)
+                        .description("Time a replaced pool waited for its borrowed connections before closing")
+                        .tags(tags)
+                        .tag("outcome", drained ? "drained" : "expired")
+                        .register(registry)))
+                .record(durationNanos, NANOSECONDS);
+    }
+
+    public Timer getPasswordVerificationTimer() {
+        return passwordVerificationTimer;
+    }
+
+    private void gauge(String name, String description, ToDoubleFunction<ProviderConfig> value) {
+        register(Gauge.builder(name, this, metrics -> metrics.read(value))
+                .description(description)
+                .tags(tags)
+                .register(registry));
+    }
+
+    private void counter(String name, String description, ToDoubleFunction<ProviderConfig> value) {
+        counter(name, description, Tags.empty(), value);
+    }
+
+    private void counter(String name, String description, Tags extraTags, ToDoubleFunction<ProviderConfig> value) {
+        register(FunctionCounter.builder(name, this, metrics -> metrics.read(value))
+                .description(description)
+                .tags(tags)
+                .tags(extraTags)
+                .register(registry));
+    }
+
+    /**
+     * Hit and miss counters and size gauge of a cache, the hit rate being hits over hits plus misses.
+     */
+    private void cache(String cache, Function<ProviderConfig, CacheStats> stats,
+            ToDoubleFunction<ProviderConfig> size) {
+        counter(CACHE_REQUESTS, "Cache lookups by result", Tags.of("cache", cache, "result", "hit"),
+                config -> stats.apply(config).hitCount());
+        counter(CACHE_REQUESTS, "Cache lookups by result", Tags.of("cache", cache, "result", "miss"),
+                config -> stats.apply(config).missCount());
+        register(Gauge.builder(CACHE_SIZE, this, metrics -> metrics.read(size))
+                .description("Entries in the cache")
+                .tags(tags)
+                .tag("cache", cache)
+                .register(registry));
+    }
+
+    private static String negativeCacheName(NegativeLookupCache.Kind kind) {
+        return "negative_" + kind.name().toLowerCase(Locale.ROOT);
+    }
+
+    private double read(ToDoubleFunction<ProviderConfig> value) {
+        ProviderConfig config = providerConfig;
+        return config != null ? value.applyAsDouble(config) : Double.NaN;
+    }
+
+    private <M extends Meter> M register(M meter) {
+        synchronized (meters) {
+            meters.add(meter);
+        }
+        return meter;
+    }
+
+    private ObjectName registerMBean(String id, String name) {
+        try {
+            ObjectName on = new ObjectName("org.openspp.keycloak:type=UserStorage,component="
+                    + ObjectName.quote(id) + ",name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(on)) {
+                server.unregisterMBean(on);
+            }
+            server.registerMBean(this, on);
+            return on;
+        } catch (JMException e) {
+            log.warn("Failed to register metrics MBean of {}: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    private <T> Map<String, T> collectQueries(Function<Timer, T> value) {
+        Map<String, T> result = new TreeMap<>();
+        queryTimers.forEach((key, timer) -> result.put(key, value.apply(timer)));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getQueryCounts() {
+        return collectQueries(Timer::count);
+    }
+
+    @Override
+    public Map<String, Double> getQueryMeanMillis() {
+        return collectQueries(timer -> timer.mean(MILLISECONDS));
+    }
+
+    @Override
+    public Map<String, Double> getQueryMaxMillis() {
+        return collectQueries(timer -> timer.max(MILLISECONDS));
+    }
+
+    @Override
+    public Map<String, Long> getRowsReturned() {
+        Map<String, Long> result = new TreeMap<>();
+        rowSummaries.forEach((query, summary) -> result.put(query, (long) summary.totalAmount()));
+        return result;
+    }
+
+    @Override
+    public long getPasswordVerifications() {
+        return passwordVerificationTimer.count();
+    }
+
+    @Override
+    public double getPasswordVerificationMeanMillis() {
+        return passwordVerificationTimer.mean(MILLISECONDS);
+    }
+
+    @Override
+    public double getPasswordVerificationMaxMillis() {
+        return passwordVerificationTimer.max(MILLISECONDS);
+    }
+
+    private List<HikariPoolMXBean> getPools() {
+        List<HikariPoolMXBean> pools = new ArrayList<>();
+        ProviderConfig config = providerConfig;
+        if (config != null) {
+            for (HikariDataSource pool : config.dataSourceProvider.getPools()) {
+                HikariPoolMXBean bean = pool.getHikariPoolMXBean();
+                if (bean != null) {
+                    pools.add(bean);
+                }
+            }
+        }
+        return pools;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return getPools().stream().mapToInt(HikariPoolMXBean::getActiveConnections).sum();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return getPools().stream().mapToInt(HikariPoolMXBean::getIdleConnections).sum();
+    }
+
+    @Override
+    public int getPendingThreads() {
+        return getPools().stream().mapToInt(HikariPoolMXBean::getThreadsAwaitingConnection).sum();
+    }
+
+    @Override
+    public double getConnectionAcquireMeanMillis() {
+        ProviderConfig config = providerConfig;
+        if (config == null) {
+            return 0;
+        }
+        long count = 0;
+        double total = 0;
+        for (HikariDataSource pool : config.dataSourceProvider.getPools()) {
+            Timer timer = registry.find(CONNECTION_ACQUIRE).tag("pool", pool.getPoolName()).timer();
+            if (timer != null) {
+                count += timer.count();
+                total += timer.totalTime(MILLISECONDS);
+            }
+        }
+        return count > 0 ? total / count : 0;
+    }
+
+    @Override
+    public Map<String, Double> getCacheHitRates() {
+        Map<String, Double> result = new TreeMap<>();
+        ProviderConfig config = providerConfig;
+        if (config != null) {
+            result.put(REGISTRANT_CACHE, config.registrantCache.getStats().hitRate());
+            for (NegativeLookupCache.Kind kind : NegativeLookupCache.Kind.values()) {
+                result.put(negativeCacheName(kind), config.negativeLookupCache.getStats(kind).hitRate());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCacheSizes() {
+        Map<String, Long> result = new TreeMap<>();
+        ProviderConfig config = providerConfig;
+        if (config != null) {
+            result.put(REGISTRANT_CACHE, config.registrantCache.size());
+            for (NegativeLookupCache.Kind kind : NegativeLookupCache.Kind.values()) {
+                result.put(negativeCacheName(kind), config.negativeLookupCache.size(kind));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getPoolSwaps() {
+        return (long) poolSwapCounter.count();
+    }
+
+    @Override
+    public double getPoolWarmUpMaxMillis() {
+        return poolWarmUpTimer.max(MILLISECONDS);
+    }
+
+    @Override
+    public String getCircuitState() {
+        ProviderConfig config = providerConfig;
+        CircuitBreaker circuitBreaker = config != null ? config.circuitBreaker : null;
+        return circuitBreaker != null ? circuitBreaker.getState().name() : null;
+    }
+
+    @Override
+    public int getConcurrentQueries() {
+        ProviderConfig config = providerConfig;
+        Bulkhead bulkhead = config != null ? config.bulkhead : null;
+        return bulkhead != null ? bulkhead.getConcurrentCalls() : 0;
+    }
+
+    /**
+     * Remove the meters from the registry and the MBean from the platform server.
+     */
+    @Override
+    public void close() {
+        synchronized (meters) {
+            for (Meter meter : meters) {
+                registry.remove(meter);
+            }
+            meters.clear();
+        }
+        queryTimers.clear();
+        rowSummaries.clear();
+        poolDrainTimers.clear();
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.warn("Failed to unregister metrics MBean {}: {}", objectName, e.getMessage());
+            }
+        }
+        providerConfig = null;
+    }
+}
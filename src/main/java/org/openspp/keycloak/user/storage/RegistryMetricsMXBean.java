@@ -0,0 +1,48 @@
+package org.openspp.keycloak.user.storage;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of one provider component. Query statistics are keyed by
+ * {@code kind/query/outcome}, row statistics by query name.
+ */
+public interface RegistryMetricsMXBean {
+
+    Map<String, Long> getQueryCounts();
+
+    Map<String, Double> getQueryMeanMillis();
+
+    Map<String, Double> getQueryMaxMillis();
+
+    Map<String, Long> getRowsReturned();
+
+    long getPasswordVerifications();
+
+    double getPasswordVerificationMeanMillis();
+
+    double getPasswordVerificationMaxMillis();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getPendingThreads();
+
+    double getConnectionAcquireMeanMillis();
+
+    /**
+     * Hit rate of the registrant cache and of each kind of the negative lookup cache, since the component was
+     * last configured.
+     */
+    Map<String, Double> getCacheHitRates();
+
+    Map<String, Long> getCacheSizes();
+
+    long getPoolSwaps();
+
+    double getPoolWarmUpMaxMillis();
+
+    String getCircuitState();
+
+    int getConcurrentQueries();
+}
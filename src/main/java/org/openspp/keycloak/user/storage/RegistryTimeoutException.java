@@ -0,0 +1,27 @@
+package org.openspp.keycloak.user.storage;
+
+/**
+ * Raised when a registry query ran longer than the timeout of its kind and was cancelled.
+ */
+public class RegistryTimeoutException extends RegistryUnavailableException {
+
+    private final QueryKind kind;
+    private final long timeout;
+
+    public RegistryTimeoutException(QueryKind kind, long timeout, Throwable cause) {
+        super(String.format("Registry %s query cancelled after %dms", kind.getDesc(), timeout), cause);
+        this.kind = kind;
+        this.timeout = timeout;
+    }
+
+    public QueryKind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return timeout of the query kind in milliseconds.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+}
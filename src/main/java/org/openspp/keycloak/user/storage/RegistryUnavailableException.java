@@ -0,0 +1,16 @@
+package org.openspp.keycloak.user.storage;
+
+/**
+ * Raised without touching the database when the registry circuit is open or too many queries are
+ * already waiting for it, or when a query was cancelled by its timeout.
+ */
+public class RegistryUnavailableException extends UserStorageException {
+
+    public RegistryUnavailableException(String message) {
+        super(message, null);
+    }
+
+    public RegistryUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,79 @@
+package org.openspp.keycloak.user.storage;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column layout of a configured query, resolved once from the result set metadata and shared
+ * by every {@link UserRow} the query produces. Rows are decoded by column index, so no label
+ * lookup happens per row.
+ */
+public final class RowLayout {
+
+    private final String[] labels;
+    private final int[] columns;
+    private final Map<String, Integer> index;
+
+    private RowLayout(String[] labels, int[] columns) {
+        this.labels = labels;
+        this.columns = columns;
+        Map<String, Integer> index = new HashMap<>(labels.length * 2);
+        for (int i = 0; i < labels.length; i++) {
+            index.put(labels[i], i);
+        }
+        this.index = Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * Build the layout from the result set metadata. When a label occurs more than once only
+     * the first column with that label is kept.
+     */
+    public static RowLayout of(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        List<String> labels = new ArrayList<>(columnCount);
+        int[] columns = new int[columnCount];
+        for (int i = 1; i <= columnCount; i++) {
+            String label = metaData.getColumnLabel(i);
+            if (!labels.contains(label)) {
+                columns[labels.size()] = i;
+                labels.add(label);
+            }
+        }
+        int[] distinctColumns = new int[labels.size()];
+        System.arraycopy(columns, 0, distinctColumns, 0, distinctColumns.length);
+        return new RowLayout(labels.toArray(new String[0]), distinctColumns);
+    }
+
+    /**
+     * Read the current row of the result set.
+     */
+    public UserRow decode(ResultSet rs) throws SQLException {
+        String[] values = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = rs.getString(columns[i]);
+        }
+        return new UserRow(this, values);
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    public String getLabel(int i) {
+        return labels[i];
+    }
+
+    /**
+     * @return position of the column in the row, or -1 when the query does not select it.
+     */
+    public int indexOf(String label) {
+        Integer i = index.get(label);
+        return i != null ? i : -1;
+    }
+}
@@ -0,0 +1,73 @@
+package org.openspp.keycloak.user.storage;
+
+/**
+ * How the admin console search term is matched against the username, email and full name.
+ */
+public enum SearchMode {
+
+    /**
+     * Case insensitive substring match. No B-tree index can serve it, every search scans the registry.
+     */
+    CONTAINS("contains"),
+
+    /**
+     * Exact match, served by plain B-tree indexes.
+     */
+    EXACT("exact"),
+
+    /**
+     * Case sensitive prefix match, served by B-tree indexes with the text_pattern_ops operator class.
+     */
+    PREFIX("prefix"),
+
+    /**
+     * pg_trgm word similarity, served by GIN or GiST indexes with the gin_trgm_ops or gist_trgm_ops
+     * operator class. Requires the pg_trgm extension.
+     */
+    TRIGRAM("trigram");
+
+    private final String desc;
+
+    SearchMode(String desc) {
+        this.desc = desc;
+    }
+
+    public static SearchMode getByDescription(String desc) {
+        for (SearchMode value : values()) {
+            if (value.desc.equalsIgnoreCase(desc)) {
+                return value;
+            }
+        }
+        return CONTAINS;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    /**
+     * @return the search term as bound to the predicate of this mode.
+     */
+    public String toParameter(String term) {
+        switch (this) {
+            case CONTAINS:
+                return String.format("%%%s%%", term);
+            case PREFIX:
+                return escapeLike(term) + "%";
+            default:
+                return term;
+        }
+    }
+
+    private static String escapeLike(String term) {
+        StringBuilder escaped = new StringBuilder(term.length() + 8);
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c == '\\' || c == '%' || c == '_') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
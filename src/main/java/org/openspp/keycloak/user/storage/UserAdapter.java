@@ -1,18 +1,16 @@
 package org.openspp.keycloak.user.storage;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
 import org.keycloak.storage.StorageId;
 import org.keycloak.storage.adapter.AbstractUserAdapterFederatedStorage;
 
@@ -22,6 +20,9 @@ import lombok.extern.slf4j.Slf4j;
 public class UserAdapter extends AbstractUserAdapterFederatedStorage {
 
     private final String keycloakId;
+    private final UserRow row;
+    private final boolean readOnlyAttributes;
+    private final boolean federatedAttributes;
     private String username;
     private List<String> nameParts;
 
@@ -35,16 +36,39 @@ public class UserAdapter extends AbstractUserAdapterFederatedStorage {
     public static String KIND_NAME_ATTRIBUTE = "kind_name";
     public static String IS_GROUP_ATTRIBUTE = "is_group";
     public static String ACTIVE_GROUP_ATTRIBUTE = "active_group";
+    private static final String EMAIL_COLUMN = "email";
 
-    public UserAdapter(KeycloakSession session, RealmModel realm, ComponentModel model, Map<String, String> data) {
+    public UserAdapter(KeycloakSession session, RealmModel realm, ComponentModel model, UserRow row) {
+        this(session, realm, model, row, false);
+    }
+
+    public UserAdapter(KeycloakSession session, RealmModel realm, ComponentModel model, UserRow row,
+            boolean readOnlyAttributes) {
+        this(session, realm, model, row, readOnlyAttributes, true);
+    }
+
+    /**
+     * @param readOnlyAttributes  serve the database columns from the row held in memory instead of
+     *                            copying them into the federated user storage of Keycloak.
+     * @param federatedAttributes with read-only attributes, also list the attributes Keycloak stored for
+     *                            the user in its own database, which costs a query per listing.
+     */
+    public UserAdapter(KeycloakSession session, RealmModel realm, ComponentModel model, UserRow row,
+            boolean readOnlyAttributes, boolean federatedAttributes) {
         super(session, realm, model);
-        this.keycloakId = StorageId.keycloakId(model, data.get("id"));
-        this.username = data.get("username");
+        this.keycloakId = StorageId.keycloakId(model, row.getId());
+        this.row = row;
+        this.readOnlyAttributes = readOnlyAttributes;
+        this.federatedAttributes = federatedAttributes;
+        this.username = row.getUsername();
+        if (readOnlyAttributes) {
+            return;
+        }
         try {
-            for (Entry<String, String> e : data.entrySet()) {
-                Set<String> newValues = new HashSet<>();
-                newValues.add(StringUtils.trimToNull(e.getValue()));
-                this.setAttribute(e.getKey(), newValues.stream().filter(Objects::nonNull).collect(Collectors.toList()));
+            RowLayout layout = row.getLayout();
+            for (int i = 0; i < layout.size(); i++) {
+                String value = StringUtils.trimToNull(row.get(i));
+                this.setAttribute(layout.getLabel(i), value != null ? List.of(value) : List.of());
             }
         } catch (Exception e) {
             log.error(e.getMessage(), "UserAdapter, username={}", this.username);
@@ -56,6 +80,98 @@ public class UserAdapter extends AbstractUserAdapterFederatedStorage {
         return keycloakId;
     }
 
+    /**
+     * @return true when the attribute is a database column served from the row in memory.
+     */
+    private boolean isRowAttribute(String name) {
+        return readOnlyAttributes && row.getLayout().indexOf(name) >= 0;
+    }
+
+    private String getRowAttribute(String name) {
+        return StringUtils.trimToNull(row.get(name));
+    }
+
+    @Override
+    public String getFirstAttribute(String name) {
+        if (isRowAttribute(name)) {
+            return getRowAttribute(name);
+        }
+        return super.getFirstAttribute(name);
+    }
+
+    @Override
+    public Stream<String> getAttributeStream(String name) {
+        if (isRowAttribute(name)) {
+            String value = getRowAttribute(name);
+            return value != null ? Stream.of(value) : Stream.empty();
+        }
+        return super.getAttributeStream(name);
+    }
+
+    /**
+     * With read-only attributes the row columns are served from memory, merged over the attributes stored
+     * by Keycloak only when those are enabled.
+     */
+    @Override
+    public Map<String, List<String>> getAttributes() {
+        if (!readOnlyAttributes) {
+            return super.getAttributes();
+        }
+        Map<String, List<String>> attributes;
+        if (federatedAttributes) {
+            attributes = super.getAttributes();
+        } else {
+            attributes = new HashMap<>();
+            putIfPresent(attributes, UserModel.USERNAME, getUsername());
+            putIfPresent(attributes, UserModel.FIRST_NAME, getFirstName());
+            putIfPresent(attributes, UserModel.LAST_NAME, getLastName());
+            putIfPresent(attributes, UserModel.EMAIL, getRowAttribute(EMAIL_COLUMN));
+        }
+        RowLayout layout = row.getLayout();
+        for (int i = 0; i < layout.size(); i++) {
+            String value = StringUtils.trimToNull(row.get(i));
+            if (value != null) {
+                attributes.put(layout.getLabel(i), List.of(value));
+            } else {
+                attributes.remove(layout.getLabel(i));
+            }
+        }
+        return attributes;
+    }
+
+    private static void putIfPresent(Map<String, List<String>> attributes, String name, String value) {
+        if (value != null) {
+            attributes.put(name, List.of(value));
+        }
+    }
+
+    @Override
+    public void setSingleAttribute(String name, String value) {
+        if (isRowAttribute(name)) {
+            log.debug("Ignoring update of read-only attribute {}, username={}", name, username);
+            return;
+        }
+        super.setSingleAttribute(name, value);
+    }
+
+    @Override
+    public void setAttribute(String name, List<String> values) {
+        if (isRowAttribute(name)) {
+            log.debug("Ignoring update of read-only attribute {}, username={}", name, username);
+            return;
+        }
+        super.setAttribute(name, values);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        if (isRowAttribute(name)) {
+            log.debug("Ignoring removal of read-only attribute {}, username={}", name, username);
+            return;
+        }
+        super.removeAttribute(name);
+    }
+
     public String getPartnerId() {
         return getFirstAttribute(PARTNER_ID_ATTRIBUTE);
     }
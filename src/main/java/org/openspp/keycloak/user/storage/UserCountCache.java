@@ -0,0 +1,64 @@
+package org.openspp.keycloak.user.storage;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * User counts shared by every session of one provider component, keyed by search term, so rendering
+ * admin console pages does not count the registry again until the entry expires.
+ */
+@Slf4j
+public class UserCountCache {
+
+    /**
+     * Key of the count of every registrant.
+     */
+    public static final String ALL = "";
+
+    private final boolean enabled;
+    private final Cache<String, Integer> counts;
+
+    /**
+     * @param ttl     time in milliseconds a count is served after it was taken, 0 disables the cache.
+     * @param maxSize maximum number of search terms remembered, 0 disables the cache.
+     */
+    public UserCountCache(long ttl, long maxSize) {
+        this.enabled = ttl > 0 && maxSize > 0;
+        this.counts = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(ttl, 0), MILLISECONDS)
+                .maximumSize(Math.max(maxSize, 0))
+                .recordStats()
+                .build();
+    }
+
+    public Integer get(String search) {
+        return enabled ? counts.getIfPresent(search) : null;
+    }
+
+    public void put(String search, int count) {
+        if (enabled) {
+            counts.put(search, count);
+        }
+    }
+
+    public void invalidateAll() {
+        counts.invalidateAll();
+    }
+
+    public CacheStats getStats() {
+        return counts.stats();
+    }
+
+    public void logStats(String name) {
+        if (enabled) {
+            CacheStats stats = getStats();
+            log.info("User count cache {}: size={} hits={} misses={} hitRate={}", name, counts.size(),
+                    stats.hitCount(), stats.missCount(), String.format("%.3f", stats.hitRate()));
+        }
+    }
+}
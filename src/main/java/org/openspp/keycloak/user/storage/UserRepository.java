@@ -4,102 +4,348 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.lang3.NotImplementedException;
 import org.keycloak.models.KeycloakSession;
 import org.openspp.keycloak.user.auth.beneficiary.oidc.BeneficiaryOIDCAuthenticatorForm;
-import org.openspp.keycloak.user.storage.util.PBKDF2HashingUtil;
+import org.openspp.keycloak.user.storage.util.Bulkhead;
+import org.openspp.keycloak.user.storage.util.CircuitBreaker;
 import org.openspp.keycloak.user.storage.util.Paginator;
 import org.openspp.keycloak.user.storage.util.Paginator.Pageable;
+import org.openspp.keycloak.user.storage.util.PasswordHashingExecutor;
+import org.openspp.keycloak.user.storage.util.ResultSetSpliterator;
+import org.openspp.keycloak.user.storage.util.StatementTimeout;
 
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class UserRepository {
 
+    private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\":\\s*(\\d+)");
+    // SQLSTATE of a statement cancelled by the client or by statement_timeout.
+    private static final String QUERY_CANCELED = "57014";
+
     private DataSourceProvider dataSourceProvider;
     private QueryConfigurations queryConfigurations;
     private final KeycloakSession session;
+    private final RegistrantCache registrantCache;
+    private final NegativeLookupCache negativeLookupCache;
+    private final PasswordHashingExecutor passwordHashingExecutor;
+    private final KeysetCursorCache keysetCursorCache;
+    private final UserCountCache userCountCache;
+    private final List<ResultSetSpliterator<?>> openCursors = new ArrayList<>();
+    private final boolean pinConnection;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final RegistryMetrics metrics;
+    private Connection pinnedConnection;
 
-    public UserRepository(KeycloakSession session, DataSourceProvider dataSourceProvider, QueryConfigurations queryConfigurations) {
+    public UserRepository(KeycloakSession session, DataSourceProvider dataSourceProvider, QueryConfigurations queryConfigurations,
+            RegistrantCache registrantCache, NegativeLookupCache negativeLookupCache,
+            PasswordHashingExecutor passwordHashingExecutor, KeysetCursorCache keysetCursorCache,
+            UserCountCache userCountCache, boolean pinConnection, CircuitBreaker circuitBreaker, Bulkhead bulkhead,
+            RegistryMetrics metrics) {
         this.dataSourceProvider = dataSourceProvider;
         this.queryConfigurations = queryConfigurations;
         this.session = session;
+        this.registrantCache = registrantCache;
+        this.negativeLookupCache = negativeLookupCache;
+        this.passwordHashingExecutor = passwordHashingExecutor;
+        this.keysetCursorCache = keysetCursorCache;
+        this.userCountCache = userCountCache;
+        this.pinConnection = pinConnection;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.metrics = metrics;
     }
 
-    private <T> T doQuery(String query, Function<ResultSet, T> resultTransformer, Object... params) {
-        return this.doQuery(query, null, resultTransformer, params);
+    private <T> T doQuery(QueryKind kind, String query, Function<ResultSet, T> resultTransformer,
+            Object... params) {
+        return this.doQuery(kind, query, null, resultTransformer, params);
     }
 
-    private <T> T doQuery(String query, Pageable pageable, Function<ResultSet, T> resultTransformer, Object... params) {
-        Optional<DataSource> dataSourceOpt = dataSourceProvider.getDataSource();
-        if (dataSourceOpt.isPresent()) {
-            DataSource dataSource = dataSourceOpt.get();
-            try (Connection c = dataSource.getConnection()) {
-                if (pageable != null) {
-                    query = Paginator.getPagableQuery(query, pageable, queryConfigurations.getJDBC());
+    @FunctionalInterface
+    private interface DatabaseCall<T> {
+        T call() throws SQLException;
+    }
+
+    /**
+     * Run the call through the bulkhead and the circuit breaker. Refused calls fail fast with
+     * {@link RegistryUnavailableException}, cancelled calls with {@link RegistryTimeoutException} and
+     * other database errors surface as {@link UserStorageException}. The latency of calls that reached
+     * the database is recorded with their outcome.
+     */
+    private <T> T guarded(QueryKind kind, String query, DatabaseCall<T> call) {
+        if (!bulkhead.tryAcquire()) {
+            throw new RegistryUnavailableException("Too many concurrent registry queries");
+        }
+        try {
+            if (!circuitBreaker.tryAcquire()) {
+                throw new RegistryUnavailableException("Registry circuit is open");
+            }
+            String name = queryConfigurations.getQueryName(query);
+            long start = System.nanoTime();
+            try {
+                T result = call.call();
+                long duration = System.nanoTime() - start;
+                circuitBreaker.onSuccess(duration);
+                metrics.recordQuery(kind, name, "success", duration);
+                return result;
+            } catch (SQLException e) {
+                circuitBreaker.onFailure();
+                if (e instanceof SQLTimeoutException || QUERY_CANCELED.equals(e.getSQLState())) {
+                    metrics.recordQuery(kind, name, "timeout", System.nanoTime() - start);
+                    long timeout = queryConfigurations.getQueryTimeout(kind);
+                    log.warn("Registry {} query cancelled after {}ms: {}", kind.getDesc(),
+                            (System.nanoTime() - start) / 1_000_000, e.getMessage());
+                    throw new RegistryTimeoutException(kind, timeout, e);
                 }
-                log.debug("Query: {} params: {} ", query, Arrays.toString(params));
-                try (PreparedStatement statement = c.prepareStatement(query)) {
-                    if (params != null) {
-                        int parameterCount = statement.getParameterMetaData().getParameterCount();
-                        if (params.length == parameterCount) {
-                            for (int i = 1; i <= params.length; i++) {
-                                statement.setObject(i, params[i - 1]);
-                            }
-                        } else {
-                            // Search query use only first parameter.
-                            log.info("Search term with single param {}", Arrays.toString(params));
-                            for (int i = 1; i <= parameterCount; i++) {
-                                statement.setString(i, String.format("%%%s%%", String.valueOf(params[0])));
-                            }
+                metrics.recordQuery(kind, name, "error", System.nanoTime() - start);
+                log.error(e.getMessage(), e);
+                throw new UserStorageException(e.getMessage(), e);
+            } catch (RuntimeException e) {
+                circuitBreaker.onFailure();
+                metrics.recordQuery(kind, name, "error", System.nanoTime() - start);
+                log.error(e.getMessage(), e);
+                throw e;
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private DataSource getReadDataSource() {
+        return dataSourceProvider.getReadDataSource()
+                .orElseThrow(() -> new RegistryUnavailableException("Registry database is not configured"));
+    }
+
+    private <T> T doQuery(QueryKind kind, String query, Pageable pageable, Function<ResultSet, T> resultTransformer,
+            Object... params) {
+        DataSource dataSource = getReadDataSource();
+        return guarded(kind, query, () -> {
+            if (pinConnection) {
+                try {
+                    Connection c = getPinnedConnection(dataSource);
+                    StatementTimeout.apply(c, queryConfigurations.getQueryTimeout(kind));
+                    try (PreparedStatement statement = prepare(c, kind, query, pageable, params)) {
+                        try (ResultSet rs = statement.executeQuery()) {
+                            return resultTransformer.apply(rs);
                         }
                     }
+                } catch (SQLException | UserStorageException e) {
+                    // The connection may be broken, borrow a fresh one for the next query.
+                    releasePinnedConnection();
+                    throw e;
+                }
+            }
+            try (Connection c = dataSource.getConnection()) {
+                StatementTimeout.apply(c, queryConfigurations.getQueryTimeout(kind));
+                try (PreparedStatement statement = prepare(c, kind, query, pageable, params)) {
                     try (ResultSet rs = statement.executeQuery()) {
                         return resultTransformer.apply(rs);
                     }
                 }
+            }
+        });
+    }
+
+    /**
+     * Connection borrowed on the first query and kept until this repository is closed, so a request
+     * checks out one connection instead of one per query. Cursors still stream on their own connection.
+     */
+    private Connection getPinnedConnection(DataSource dataSource) throws SQLException {
+        if (pinnedConnection == null) {
+            Connection c = dataSource.getConnection();
+            try {
+                c.setAutoCommit(true);
+                c.setReadOnly(true);
+            } catch (SQLException e) {
+                c.close();
+                throw e;
+            }
+            pinnedConnection = c;
+        }
+        return pinnedConnection;
+    }
+
+    private void releasePinnedConnection() {
+        if (pinnedConnection != null) {
+            try {
+                pinnedConnection.close();
             } catch (SQLException e) {
                 log.error(e.getMessage(), e);
             }
-            return null;
+            pinnedConnection = null;
         }
-        return null;
     }
 
-    private List<Map<String, String>> readMap(ResultSet rs) {
+    /**
+     * Run the query on a server side cursor and map rows only as the returned stream is consumed.
+     * The connection stays checked out until the stream is exhausted, the page is complete, the
+     * stream is closed or this repository is closed, whichever comes first.
+     */
+    private Stream<UserRow> doStreamQuery(QueryKind kind, String query, Pageable pageable, Object... params) {
+        DataSource dataSource = getReadDataSource();
+        return guarded(kind, query, () -> {
+            Connection c = dataSource.getConnection();
+            try {
+                StatementTimeout.apply(c, queryConfigurations.getQueryTimeout(kind));
+                // The PostgreSQL driver only honours the fetch size inside a transaction.
+                c.setAutoCommit(false);
+                PreparedStatement statement = prepare(c, kind, query, pageable, params);
+                statement.setFetchSize(queryConfigurations.getFetchSize());
+                ResultSet rs = statement.executeQuery();
+                RowLayout layout = queryConfigurations.getRowLayout(query, rs);
+                String name = queryConfigurations.getQueryName(query);
+                ResultSetSpliterator<UserRow> cursor = new ResultSetSpliterator<>(c, statement, rs,
+                        layout::decode, pageable != null && pageable.isLimited() ? pageable.getMaxResults() : -1,
+                        rows -> metrics.recordRows(name, rows));
+                openCursors.removeIf(ResultSetSpliterator::isClosed);
+                openCursors.add(cursor);
+                return cursor.stream();
+            } catch (SQLException | UserStorageException e) {
+                try {
+                    c.close();
+                } catch (SQLException ce) {
+                    log.error(ce.getMessage(), ce);
+                }
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Prepare the query, or its pre-compiled paged form when a page size or first result is requested, and
+     * bind the parameters. Limit and offset are bound as parameters so every page shares one statement text.
+     */
+    private PreparedStatement prepare(Connection c, QueryKind kind, String query, Pageable pageable,
+            Object... params) throws SQLException {
+        if (pageable == null || !pageable.isPaged()) {
+            log.debug("Query: {} params: {} ", query, Arrays.toString(params));
+            PreparedStatement statement = c.prepareStatement(query);
+            try {
+                setQueryTimeout(statement, kind);
+                bindParameters(statement, 1, queryConfigurations.getParameterCount(query), params);
+            } catch (SQLException e) {
+                statement.close();
+                throw e;
+            }
+            return statement;
+        }
+        Paginator.PagedQuery pagedQuery = queryConfigurations.getPagedQuery(query);
+        String sql = pagedQuery.getSql(pageable);
+        log.debug("Query: {} params: {} page: {}+{}", sql, Arrays.toString(params), pageable.getFirstResult(),
+                pageable.getMaxResults());
+        PreparedStatement statement = c.prepareStatement(sql);
         try {
-            List<Map<String, String>> data = new ArrayList<>();
-            Set<String> columnLabels = new HashSet<>();
-            for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-                String columnLabel = rs.getMetaData().getColumnLabel(i);
-                columnLabels.add(columnLabel);
+            setQueryTimeout(statement, kind);
+            int index = 1 + pagedQuery.bindLimitParametersAtStart(pageable, statement, 1);
+            index += bindParameters(statement, index, pagedQuery.getParameterCount(), params);
+            pagedQuery.bindLimitParametersAtEnd(pageable, statement, index);
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    /**
+     * The driver cancels the statement on the server once the timeout of its kind, rounded up to whole
+     * seconds, has elapsed. The {@link StatementTimeout} of the session stops it in case the cancel does not
+     * get through.
+     */
+    private void setQueryTimeout(PreparedStatement statement, QueryKind kind) throws SQLException {
+        long timeout = queryConfigurations.getQueryTimeout(kind);
+        if (timeout > 0) {
+            statement.setQueryTimeout((int) Math.min((timeout + 999) / 1000, Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * @return number of parameters bound, starting at the given index.
+     */
+    private static int bindParameters(PreparedStatement statement, int index, int parameterCount, Object... params)
+            throws SQLException {
+        if (params == null) {
+            return 0;
+        }
+        if (params.length == parameterCount) {
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(index + i, params[i]);
             }
-            while (rs.next()) {
-                Map<String, String> result = new HashMap<>();
-                for (String col : columnLabels) {
-                    result.put(col, rs.getString(col));
+        } else if (params.length == 1) {
+            // A single value fills every parameter of the query.
+            for (int i = 0; i < parameterCount; i++) {
+                statement.setObject(index + i, params[0]);
+            }
+        } else {
+            throw new SQLException(String.format("Query expects %d parameters, got %d", parameterCount,
+                    params.length));
+        }
+        return parameterCount;
+    }
+
+    /**
+     * Run the login path queries once on a new connection with values matching nothing, so the database
+     * session has loaded the registrant tables, the driver has prepared the statements and their row
+     * layouts are resolved before the connection serves a login.
+     */
+    static void warmUp(Connection c, QueryConfigurations queryConfigurations) throws SQLException {
+        warmUp(c, queryConfigurations, queryConfigurations.getFindById(), true, 0);
+        warmUp(c, queryConfigurations, queryConfigurations.getFindByUsername(), true, "");
+        warmUp(c, queryConfigurations, queryConfigurations.getFindByBeneficiaryForm(), true, "");
+        warmUp(c, queryConfigurations, queryConfigurations.getFindPasswordHash(), false, "");
+        warmUp(c, queryConfigurations, queryConfigurations.getFindPasswordHashAlt(), false, "");
+    }
+
+    private static void warmUp(Connection c, QueryConfigurations queryConfigurations, String query,
+            boolean userRows, Object param) throws SQLException {
+        try (PreparedStatement statement = c.prepareStatement(query)) {
+            bindParameters(statement, 1, queryConfigurations.getParameterCount(query), param);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (userRows) {
+                    queryConfigurations.getRowLayout(query, rs);
+                }
+                while (rs.next()) {
+                    // Drain the cursor.
                 }
-                data.add(result);
             }
-            return data;
-        } catch (Exception e) {
-            throw new UserStorageException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Decode rows by column index with the layout compiled for the given query.
+     */
+    private Function<ResultSet, List<UserRow>> readRows(String query) {
+        return rs -> {
+            try {
+                List<UserRow> data = new ArrayList<>();
+                RowLayout layout = null;
+                while (rs.next()) {
+                    if (layout == null) {
+                        layout = queryConfigurations.getRowLayout(query, rs);
+                    }
+                    data.add(layout.decode(rs));
+                }
+                metrics.recordRows(queryConfigurations.getQueryName(query), data.size());
+                return data;
+            } catch (Exception e) {
+                throw new UserStorageException(e.getMessage(), e);
+            }
+        };
+    }
+
     private Integer readInt(ResultSet rs) {
         try {
             return rs.next() ? rs.getInt(1) : null;
@@ -124,55 +370,228 @@ public class UserRepository {
         }
     }
 
-    public List<Map<String, String>> getAllUsers() {
-        return doQuery(queryConfigurations.getListAll(), this::readMap);
+    public Stream<UserRow> getAllUsers() {
+        String query = queryConfigurations.getListAll();
+        if (isStreaming()) {
+            return doStreamQuery(QueryKind.SEARCH, query, null);
+        }
+        return doQuery(QueryKind.SEARCH, query, readRows(query)).stream();
     }
 
     public int getUsersCount() {
-        return this.getUsersCount();
+        return getUsersCount(null);
     }
 
-    public int getUsersCount(String search) {
-        if (search == null || search.isEmpty()) {
-            return Optional.ofNullable(doQuery(queryConfigurations.getCount(), this::readInt)).orElse(0);
-        } else {
-            String query = String.format("SELECT COUNT(*) FROM (%s) COUNT", queryConfigurations.getFindBySearchTerm());
-            return Optional.ofNullable(doQuery(query, this::readInt, search)).orElse(0);
+    /**
+     * Count served from the count cache when possible. Failed counts are not cached.
+     */
+    public int getUsersCount(String term) {
+        Search search = toSearch(term);
+        Integer count = userCountCache.get(search.key);
+        if (count == null) {
+            count = search.params.length == 0 ? countAll() : countSearch(search);
+            if (count == null) {
+                return 0;
+            }
+            userCountCache.put(search.key, count);
         }
+        return count;
     }
 
-    public Map<String, String> findUserById(String id) {
-        return Optional
-                .ofNullable(doQuery(queryConfigurations.getFindById(), this::readMap, Integer.parseInt(id)))
-                .orElse(Collections.emptyList())
-                .stream().findFirst().orElse(null);
+    private Integer countAll() {
+        if (queryConfigurations.getCountMode() == CountMode.CAPPED) {
+            String query = queryConfigurations.getListAll();
+            return doQuery(QueryKind.COUNT, queryConfigurations.getCountQuery(query), this::readInt);
+        }
+        if (queryConfigurations.getCountMode() == CountMode.ESTIMATED) {
+            Integer estimate = doQuery(QueryKind.COUNT, queryConfigurations.getCountEstimate(), this::readPlanRows);
+            if (estimate != null) {
+                return estimate;
+            }
+            log.warn("No planner estimate for the user count, counting every user");
+        }
+        return doQuery(QueryKind.COUNT, queryConfigurations.getCount(), this::readInt);
+    }
+
+    /**
+     * Count the matches of the search.
+     */
+    private Integer countSearch(Search search) {
+        return doQuery(QueryKind.COUNT, queryConfigurations.getCountQuery(search.query), this::readInt,
+                search.params);
+    }
+
+    /**
+     * Read the row estimate of the top plan node from a JSON formatted EXPLAIN.
+     */
+    private Integer readPlanRows(ResultSet rs) {
+        String plan = readString(rs);
+        if (plan == null) {
+            return null;
+        }
+        Matcher matcher = PLAN_ROWS.matcher(plan);
+        if (!matcher.find()) {
+            return null;
+        }
+        long rows = Long.parseLong(matcher.group(1));
+        return (int) Math.min(rows, Integer.MAX_VALUE);
+    }
+
+    public UserRow findUserById(String id) {
+        UserRow cached = registrantCache.getById(id);
+        if (cached != null) {
+            return cached;
+        }
+        String query = queryConfigurations.getFindById();
+        UserRow user = doQuery(QueryKind.LOOKUP, query, readRows(query), Integer.parseInt(id)).stream().findFirst()
+                .orElse(null);
+        if (user != null) {
+            registrantCache.putById(user);
+            forgetMisses(user);
+        }
+        return user;
     }
 
-    public Optional<Map<String, String>> findUserByUsername(String username) {
-        return Optional.ofNullable(doQuery(queryConfigurations.getFindByUsername(), this::readMap, username))
-                .orElse(Collections.emptyList())
-                .stream().findFirst();
+    public Optional<UserRow> findUserByUsername(String username) {
+        return findUserByUsername(username, NegativeLookupCache.Kind.USERNAME);
     }
 
-    public List<Map<String, String>> findUsersByBeneficiaryForm(String householdNumber, String uidNumber, String phoneNumber) {
-        List<Map<String, String>> users = doQuery(queryConfigurations.getFindByUsername(), this::readMap, householdNumber);
-        List<Map<String, String>> groups = doQuery(queryConfigurations.getFindByBeneficiaryForm(), this::readMap, uidNumber, phoneNumber);
-        if (users != null && groups != null) {
-            users.addAll(groups);
-            return users;
+    private Optional<UserRow> findUserByUsername(String username, NegativeLookupCache.Kind kind) {
+        UserRow cached = registrantCache.getByUsername(username);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        if (negativeLookupCache.isKnownMiss(kind, username)) {
+            log.debug("Known {} miss: {}", kind, username);
+            return Optional.empty();
+        }
+        String query = queryConfigurations.getFindByUsername();
+        Optional<UserRow> user = doQuery(QueryKind.LOOKUP, query, readRows(query), username).stream().findFirst();
+        if (user.isPresent()) {
+            registrantCache.putByUsername(user.get());
+        } else {
+            negativeLookupCache.recordMiss(kind, username);
+        }
+        return user;
+    }
+
+    /**
+     * Head of household with the Unified ID and phone number, found only when the household exists too.
+     * Both are checked by one statement.
+     */
+    public Optional<UserRow> findUserByBeneficiaryForm(String householdNumber, String uidNumber, String phoneNumber) {
+        NegativeLookupCache.Kind kind = NegativeLookupCache.Kind.BENEFICIARY;
+        if (negativeLookupCache.isKnownMiss(kind, householdNumber, uidNumber, phoneNumber)) {
+            log.debug("Known {} miss: {}", kind, uidNumber);
+            return Optional.empty();
+        }
+        String query = queryConfigurations.getFindByBeneficiaryForm();
+        Optional<UserRow> user = doQuery(QueryKind.BENEFICIARY, query, readRows(query), uidNumber, phoneNumber,
+                householdNumber).stream()
+                .findFirst();
+        if (user.isPresent()) {
+            registrantCache.putById(user.get());
+            forgetMisses(user.get());
         } else {
-            return users != null && users.size() > 0 ? users : groups;
+            negativeLookupCache.recordMiss(kind, householdNumber, uidNumber, phoneNumber);
         }
+        return user;
     }
 
-    public List<Map<String, String>> findUsers(String search, Paginator.Pageable pageable) {
+    /**
+     * The registrant was found in the registry, so a miss remembered for its username is stale: it was
+     * registered, or renamed, after the miss.
+     */
+    private void forgetMisses(UserRow user) {
+        if (user.getUsername() != null) {
+            negativeLookupCache.invalidate(NegativeLookupCache.Kind.USERNAME, user.getUsername());
+        }
+    }
+
+    /**
+     * Query and parameters of a user search.
+     */
+    private static final class Search {
+        final String key;
+        final String query;
+        final Object[] params;
+
+        Search(String key, String query, Object... params) {
+            this.key = key;
+            this.query = query;
+            this.params = params;
+        }
+    }
+
+    /**
+     * Every user without a term, an exact lookup for terms that look like a phone or ID number, otherwise
+     * the predicate of the configured search mode.
+     */
+    private Search toSearch(String search) {
         if (search == null || search.isEmpty() || search.equals("*")) {
-            return doQuery(queryConfigurations.getListAll(), pageable, this::readMap);
+            return new Search(UserCountCache.ALL, queryConfigurations.getListAll());
+        }
+        if (queryConfigurations.isIdentifier(search)) {
+            String sanitized = search.replaceAll("[ ()./-]", "");
+            return new Search(search, queryConfigurations.getFindByIdentifier(), search, search, sanitized);
         }
-        return doQuery(queryConfigurations.getFindBySearchTerm(), pageable, this::readMap, search);
+        String query = queryConfigurations.getFindBySearchTerm();
+        Object[] params = new Object[queryConfigurations.getPagedQuery(query).getParameterCount()];
+        Arrays.fill(params, queryConfigurations.getSearchMode().toParameter(search));
+        return new Search(search, query, params);
     }
 
-    public boolean validateCredentials(String username, String password) throws Exception {
+    public Stream<UserRow> findUsers(String term, Paginator.Pageable pageable) {
+        Search search = toSearch(term);
+        if (queryConfigurations.getPaginationMode() == PaginationMode.KEYSET && pageable != null
+                && pageable.isLimited()) {
+            return findUsersByKeyset(search, pageable);
+        }
+        return findRows(search.query, pageable, search.params);
+    }
+
+    private Stream<UserRow> findRows(String query, Pageable pageable, Object... params) {
+        if (isStreaming()) {
+            return doStreamQuery(QueryKind.SEARCH, query, pageable, params);
+        }
+        return doQuery(QueryKind.SEARCH, query, pageable, readRows(query), params).stream();
+    }
+
+    /**
+     * Page ordered by id. When the page right before the requested one was served, seek past its last id,
+     * otherwise skip rows with an ordered OFFSET. Each complete page remembers its last id for the next.
+     */
+    private Stream<UserRow> findUsersByKeyset(Search search, Pageable pageable) {
+        int firstResult = pageable.getFirstResult();
+        int maxResults = pageable.getMaxResults();
+        Long lastId = firstResult > 0 ? keysetCursorCache.get(search.key, firstResult) : null;
+        Stream<UserRow> rows;
+        if (lastId != null) {
+            log.debug("Keyset page after id {}: search={} firstResult={}", lastId, search.key, firstResult);
+            // The cursor id is bound after the parameters of the search.
+            Object[] keysetParams = Arrays.copyOf(search.params, search.params.length + 1);
+            keysetParams[search.params.length] = lastId;
+            rows = findRows(queryConfigurations.getKeysetQuery(search.query), new Pageable(0, maxResults),
+                    keysetParams);
+        } else {
+            rows = findRows(queryConfigurations.getOrderedQuery(search.query), pageable, search.params);
+        }
+        int[] served = new int[1];
+        return rows.peek(row -> {
+            if (++served[0] == maxResults) {
+                keysetCursorCache.put(search.key, firstResult + maxResults, row.getId());
+            }
+        });
+    }
+
+    private boolean isStreaming() {
+        return queryConfigurations.getFetchSize() > 0;
+    }
+
+    /**
+     * Read the password hash of the user together with its partner id and row version in one lookup.
+     */
+    public Optional<CredentialEnvelope> findCredentials(String username) {
         String param = username;
         String query = queryConfigurations.getFindPasswordHash();
         String uid = session.getContext().getAuthenticationSession().getAuthNote(BeneficiaryOIDCAuthenticatorForm.FIELD_UID);
@@ -182,11 +601,38 @@ public class UserRepository {
             param = uid;
             query = queryConfigurations.getFindPasswordHashAlt();
         }
-        
-        String hash = Optional
-                .ofNullable(doQuery(query, this::readString, param))
-                .orElse("");
-        return PBKDF2HashingUtil.validatePassword(password, hash);
+
+        CredentialEnvelope credentials = doQuery(QueryKind.HASH, query, this::readCredentials, param);
+        if (credentials != null) {
+            negativeLookupCache.invalidate(NegativeLookupCache.Kind.USERNAME, username);
+        }
+        return Optional.ofNullable(credentials);
+    }
+
+    private CredentialEnvelope readCredentials(ResultSet rs) {
+        try {
+            return rs.next() ? new CredentialEnvelope(rs.getString(1), rs.getString(2), rs.getString(3)) : null;
+        } catch (Exception e) {
+            throw new UserStorageException(e.getMessage(), e);
+        }
+    }
+
+    public PasswordHashingExecutor.Result validateCredentials(CredentialEnvelope credentials, String password) {
+        String hash = credentials.getHash();
+        if (hash == null || hash.isEmpty()) {
+            return PasswordHashingExecutor.Result.INVALID;
+        }
+        return passwordHashingExecutor.validatePassword(password, hash);
+    }
+
+    /**
+     * Drop the registrant from the shared caches after it changed in the registry.
+     */
+    public void evict(String id, String username) {
+        registrantCache.invalidate(id, username);
+        if (username != null) {
+            negativeLookupCache.invalidate(NegativeLookupCache.Kind.USERNAME, username);
+        }
     }
 
     public boolean updateCredentials(String username, String password) {
@@ -196,4 +642,15 @@ public class UserRepository {
     public boolean removeUser() {
         throw new NotImplementedException("Remove user not supported");
     }
+
+    /**
+     * Release the connections of cursors the caller did not consume to the end.
+     */
+    public void close() {
+        for (ResultSetSpliterator<?> cursor : openCursors) {
+            cursor.close();
+        }
+        openCursors.clear();
+        releasePinnedConnection();
+    }
 }
@@ -0,0 +1,64 @@
+package org.openspp.keycloak.user.storage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable registrant row as read from the database: the column values plus the layout
+ * shared by all rows of the same query.
+ */
+public final class UserRow {
+
+    public static final String ID_COLUMN = "id";
+    public static final String USERNAME_COLUMN = "username";
+    public static final String VERSION_COLUMN = "write_date";
+
+    private final RowLayout layout;
+    private final String[] values;
+
+    UserRow(RowLayout layout, String[] values) {
+        this.layout = layout;
+        this.values = values;
+    }
+
+    public RowLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return the raw column value, or null when the value is null or the column is not selected.
+     */
+    public String get(String column) {
+        int i = layout.indexOf(column);
+        return i >= 0 ? values[i] : null;
+    }
+
+    public String get(int i) {
+        return values[i];
+    }
+
+    public String getId() {
+        return get(ID_COLUMN);
+    }
+
+    public String getUsername() {
+        return get(USERNAME_COLUMN);
+    }
+
+    public String getVersion() {
+        return get(VERSION_COLUMN);
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            map.put(layout.getLabel(i), values[i]);
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
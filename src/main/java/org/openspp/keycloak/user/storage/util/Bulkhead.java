@@ -0,0 +1,62 @@
+package org.openspp.keycloak.user.storage.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caps the number of threads querying the database at once, so a slow database cannot park every
+ * Keycloak request thread on the connection pool. Calls over the cap are refused straight away.
+ */
+@Slf4j
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final Semaphore permits;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxConcurrentCalls maximum number of concurrent calls, 0 or less for no limit.
+     */
+    public Bulkhead(String name, int maxConcurrentCalls) {
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.permits = new Semaphore(Math.max(maxConcurrentCalls, 0));
+    }
+
+    /**
+     * @return false when the cap is reached; a successful acquire must be followed by {@link #release()}.
+     */
+    public boolean tryAcquire() {
+        if (maxConcurrentCalls <= 0 || permits.tryAcquire()) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public void release() {
+        if (maxConcurrentCalls > 0) {
+            permits.release();
+        }
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public int getConcurrentCalls() {
+        return maxConcurrentCalls > 0 ? maxConcurrentCalls - permits.availablePermits() : 0;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public void logStats() {
+        log.info("Registry bulkhead {}: maxConcurrentCalls={} rejected={}", name, maxConcurrentCalls,
+                rejected.sum());
+    }
+}
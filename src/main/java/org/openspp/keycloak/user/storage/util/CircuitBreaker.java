@@ -0,0 +1,142 @@
+package org.openspp.keycloak.user.storage.util;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stops calling the database after a run of failed or slow calls. While open every call is refused
+ * straight away; once the open duration has elapsed a limited number of probe calls go through and
+ * decide whether the circuit closes again or stays open.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int probesInFlight;
+    private long openedAt;
+    private long openedCount;
+    private long rejectedCount;
+    private long failureCount;
+    private long slowCallCount;
+
+    /**
+     * @param failureThreshold number of consecutive failed or slow calls opening the circuit, 0 disables the breaker.
+     * @param slowCallThreshold duration in milliseconds above which a successful call counts as failed, 0 to ignore latency.
+     * @param openDuration     time in milliseconds calls are refused before probing the database again.
+     * @param halfOpenProbes   number of concurrent probe calls allowed while half open.
+     */
+    public CircuitBreaker(String name, int failureThreshold, long slowCallThreshold, long openDuration,
+            int halfOpenProbes) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.slowCallNanos = MILLISECONDS.toNanos(slowCallThreshold);
+        this.openNanos = MILLISECONDS.toNanos(openDuration);
+        this.halfOpenProbes = Math.max(halfOpenProbes, 1);
+    }
+
+    /**
+     * @return false when the call must not reach the database.
+     */
+    public synchronized boolean tryAcquire() {
+        if (failureThreshold <= 0 || state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejectedCount++;
+                return false;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (probesInFlight < halfOpenProbes) {
+            probesInFlight++;
+            return true;
+        }
+        rejectedCount++;
+        return false;
+    }
+
+    /**
+     * Record a call that completed, counted as failed when slower than the slow call threshold.
+     */
+    public synchronized void onSuccess(long durationNanos) {
+        if (slowCallNanos > 0 && durationNanos > slowCallNanos) {
+            slowCallCount++;
+            log.warn("Slow registry call {}: {}ms", name, NANOSECONDS.toMillis(durationNanos));
+            recordFailure();
+            return;
+        }
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            transition(State.CLOSED);
+        }
+    }
+
+    public synchronized void onFailure() {
+        failureCount++;
+        recordFailure();
+    }
+
+    private void recordFailure() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State next) {
+        log.warn("Registry circuit {}: {} -> {} after {} consecutive failures", name, state, next,
+                consecutiveFailures);
+        state = next;
+        probesInFlight = 0;
+        if (next == State.OPEN) {
+            openedAt = System.nanoTime();
+            openedCount++;
+        } else if (next == State.CLOSED) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    public synchronized long getSlowCallCount() {
+        return slowCallCount;
+    }
+
+    public synchronized void logStats() {
+        log.info("Registry circuit {}: state={} opened={} rejected={} failures={} slowCalls={}", name, state,
+                openedCount, rejectedCount, failureCount, slowCallCount);
+    }
+}
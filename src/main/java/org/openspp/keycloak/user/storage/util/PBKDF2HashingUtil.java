@@ -1,6 +1,6 @@
 package org.openspp.keycloak.user.storage.util;
 
-import java.util.Base64;
+import java.security.MessageDigest;
 
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
@@ -11,38 +11,53 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class PBKDF2HashingUtil {
 
+    private static final String PBKDF2_PREFIX = "$pbkdf2-";
+
     /**
      * Reference:
      * https://docs.oracle.com/javase/8/docs/technotes/guides/security/StandardNames.html#SecretKeyFactory
      * and https://www.rfc-editor.org/rfc/rfc8018
      * Odoo res_users using PBKDF2-SHA512 with iterations = 25000, generate and
-     * verify with python passlib library.
-     * 
+     * verify with python passlib library. SHA-512 and SHA-256 hashes are verified
+     * with {@link PasslibPbkdf2Verifier}, other digests fall back to the JCE.
+     *
      * @param password
-     * @param hmac
+     * @param hash
      * @throws Exception
      */
     public static boolean validatePassword(String password, String hash) throws Exception {
-        String[] hashAttrs = hash.split("\\$");
-        if (hashAttrs.length < 4) {
+        try {
+            if (PasslibPbkdf2Verifier.supports(hash)) {
+                return PasslibPbkdf2Verifier.verify(password, hash);
+            }
+            return validatePasswordWithJce(password, hash);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new Exception("Invalid password hash", e);
+        }
+    }
+
+    private static boolean validatePasswordWithJce(String password, String hash) throws Exception {
+        if (!hash.startsWith(PBKDF2_PREFIX)) {
+            throw new Exception("Invalid password hash");
+        }
+        int roundsStart = hash.indexOf('$', PBKDF2_PREFIX.length()) + 1;
+        int saltStart = hash.indexOf('$', roundsStart) + 1;
+        int checksumStart = hash.indexOf('$', saltStart) + 1;
+        if (roundsStart == 0 || saltStart == 0 || checksumStart == 0) {
             throw new Exception("Invalid password hash");
         }
-        String hmac = hashAttrs[1].split("-")[1].toUpperCase();
-        int iterations = Integer.parseInt(hashAttrs[2]);
-        byte[] salt = Base64.getDecoder().decode(hashAttrs[3].replace(".", "+"));
-        int keyLength = 512;
-        String computedHash = "";
+        String hmac = hash.substring(PBKDF2_PREFIX.length(), roundsStart - 1).toUpperCase();
+        int iterations = Integer.parseInt(hash, roundsStart, saltStart - 1, 10);
+        byte[] salt = PasslibPbkdf2Verifier.ab64Decode(hash, saltStart, checksumStart - 1);
+        byte[] checksum = PasslibPbkdf2Verifier.ab64Decode(hash, checksumStart, hash.length());
         SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmac" + hmac);
         PBEKeySpec spec = new PBEKeySpec(
             password.toCharArray(),
             salt,
             iterations,
-            keyLength
+            checksum.length * 8
         );
         SecretKey secretKey = skf.generateSecret(spec);
-        computedHash = Base64.getEncoder().encodeToString(secretKey.getEncoded());
-        computedHash = computedHash.replace("+", ".");
-        computedHash = computedHash.replaceAll("=+$", "");
-        return hashAttrs[4].equals(computedHash);
+        return MessageDigest.isEqual(secretKey.getEncoded(), checksum);
     }
 }
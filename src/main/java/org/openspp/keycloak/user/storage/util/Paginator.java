@@ -1,21 +1,14 @@
 package org.openspp.keycloak.user.storage.util;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.hibernate.dialect.Dialect;
 import org.hibernate.dialect.pagination.LimitHandler;
 import org.hibernate.engine.spi.RowSelection;
 import org.openspp.keycloak.user.storage.JDBC;
-import org.openspp.keycloak.user.storage.UserStorageException;
 
 public class Paginator {
 
-    @SuppressWarnings("RegExpRedundantEscape")
-    private static final Pattern SINGLE_QUESTION_MARK_REGEX = Pattern.compile("(^|[^\\?])(\\?)([^\\?]|$)");
-
     public static class Pageable {
         private final int firstResult;
         private final int maxResults;
@@ -24,49 +17,109 @@ public class Paginator {
             this.firstResult = firstResult;
             this.maxResults = maxResults;
         }
-    }
 
-    public static String getPagableQuery(String query, Pageable pageable, JDBC JDBC) {
-
-        final Dialect dialect = JDBC.getDialect();
-
-        RowSelection rowSelection = new RowSelection();
-        rowSelection.setFetchSize(pageable.maxResults);
-        rowSelection.setFirstRow(pageable.firstResult);
-        rowSelection.setMaxRows(pageable.maxResults);
-
-        String escapedSQL = escapeQuestionMarks(query);
-
-        StringBuilder processedSQL;
-        try {
-            LimitHandler limitHandler = dialect.getLimitHandler();
-            processedSQL = new StringBuilder(limitHandler.processSql(escapedSQL, rowSelection));
-            int col = 1;
-            PreparedStatementParameterCollector collector = new PreparedStatementParameterCollector();
-            col += limitHandler.bindLimitParametersAtStartOfQuery(rowSelection, collector, col);
-            limitHandler.bindLimitParametersAtEndOfQuery(rowSelection, collector, col);
-
-            Map<Integer, Object> parameters = collector.getParameters();
-            for (int i = 1; i <= parameters.keySet().size(); i++) {
-                Matcher matcher = SINGLE_QUESTION_MARK_REGEX.matcher(processedSQL);
-                if (matcher.find()) {
-                    String str = String.valueOf(parameters.get(i));
-                    processedSQL.replace(matcher.start(2), matcher.end(2), str);
-                }
-            }
-            return unescapeQuestionMarks(processedSQL.toString());
+        public int getFirstResult() {
+            return firstResult;
+        }
+
+        public int getMaxResults() {
+            return maxResults;
+        }
 
-        } catch (SQLException e) {
-            throw new UserStorageException(e.getMessage(), e);
+        /**
+         * @return false when no page size was requested.
+         */
+        public boolean isLimited() {
+            return maxResults > 0;
+        }
+
+        /**
+         * @return false when neither a page size nor a first result was requested, the query then runs
+         *         without limit and offset.
+         */
+        public boolean isPaged() {
+            return isLimited() || firstResult > 0;
+        }
+
+        /**
+         * Without a page size the limit is the largest row count, so the offset alone applies.
+         */
+        private RowSelection toRowSelection() {
+            RowSelection rowSelection = new RowSelection();
+            rowSelection.setFetchSize(isLimited() ? maxResults : 0);
+            rowSelection.setFirstRow(Math.max(firstResult, 0));
+            rowSelection.setMaxRows(isLimited() ? maxResults : Integer.MAX_VALUE);
+            return rowSelection;
         }
     }
 
-    private static String unescapeQuestionMarks(String sql) {
-        return sql.replaceAll("\\?\\?", "?");
+    /**
+     * Paged form of a query, compiled once with the limit and offset as bind parameters so every page
+     * runs the same statement text and the database can reuse its plan. The dialect uses one text for
+     * the first page (limit only) and one for later pages (limit and offset).
+     */
+    public static class PagedQuery {
+        private final String firstPageSql;
+        private final String offsetSql;
+        private final int parameterCount;
+        private final LimitHandler limitHandler;
+
+        private PagedQuery(String firstPageSql, String offsetSql, int parameterCount, LimitHandler limitHandler) {
+            this.firstPageSql = firstPageSql;
+            this.offsetSql = offsetSql;
+            this.parameterCount = parameterCount;
+            this.limitHandler = limitHandler;
+        }
+
+        public String getSql(Pageable pageable) {
+            return pageable.getFirstResult() > 0 ? offsetSql : firstPageSql;
+        }
+
+        /**
+         * @return number of parameters of the original query, limit and offset excluded.
+         */
+        public int getParameterCount() {
+            return parameterCount;
+        }
+
+        /**
+         * @return number of limit parameters bound in front of the query parameters.
+         */
+        public int bindLimitParametersAtStart(Pageable pageable, PreparedStatement statement, int index)
+                throws SQLException {
+            return limitHandler.bindLimitParametersAtStartOfQuery(pageable.toRowSelection(), statement, index);
+        }
+
+        /**
+         * @return number of limit parameters bound after the query parameters.
+         */
+        public int bindLimitParametersAtEnd(Pageable pageable, PreparedStatement statement, int index)
+                throws SQLException {
+            return limitHandler.bindLimitParametersAtEndOfQuery(pageable.toRowSelection(), statement, index);
+        }
     }
 
-    private static String escapeQuestionMarks(String sql) {
-        return sql.replaceAll("\\?", "??");
+    /**
+     * Compile the paged statement texts of the query for the dialect.
+     */
+    public static PagedQuery compile(String query, JDBC JDBC) {
+        LimitHandler limitHandler = JDBC.getDialect().getLimitHandler();
+        String firstPageSql = limitHandler.processSql(query, new Pageable(0, 1).toRowSelection());
+        String offsetSql = limitHandler.processSql(query, new Pageable(1, 1).toRowSelection());
+        return new PagedQuery(firstPageSql, offsetSql, countParameters(query), limitHandler);
     }
 
+    /**
+     * Count the positional parameters of the query. The configured queries never use a question mark
+     * inside a literal or identifier.
+     */
+    public static int countParameters(String query) {
+        int count = 0;
+        for (int i = 0; i < query.length(); i++) {
+            if (query.charAt(i) == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
 }
@@ -0,0 +1,476 @@
+package org.openspp.keycloak.user.storage.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Verifier for the passlib PBKDF2 hashes Odoo stores, {@code $pbkdf2-sha512$<rounds>$<salt>$<checksum>}
+ * and {@code $pbkdf2-sha256$...}, where salt and checksum use passlib's adapted base64 ('.' instead of
+ * '+', no padding).
+ *
+ * Compared with the generic JCE implementation this parses the hash without regular expressions or
+ * intermediate strings, computes the HMAC inner and outer pad states once per password and runs every
+ * iteration as exactly two compression function calls on reused word buffers. The derived key is
+ * compared with the stored checksum as raw bytes in constant time.
+ *
+ * Reference: https://www.rfc-editor.org/rfc/rfc8018 and https://www.rfc-editor.org/rfc/rfc2104
+ */
+public final class PasslibPbkdf2Verifier {
+
+    public static final String SHA512_PREFIX = "$pbkdf2-sha512$";
+    public static final String SHA256_PREFIX = "$pbkdf2-sha256$";
+
+    private PasslibPbkdf2Verifier() {
+    }
+
+    /**
+     * @return true when the hash uses a scheme this verifier supports.
+     */
+    public static boolean supports(String hash) {
+        return hash.startsWith(SHA512_PREFIX) || hash.startsWith(SHA256_PREFIX);
+    }
+
+    /**
+     * @throws IllegalArgumentException when the hash is not a well formed passlib PBKDF2 hash.
+     */
+    public static boolean verify(String password, String hash) {
+        boolean sha512 = hash.startsWith(SHA512_PREFIX);
+        if (!sha512 && !hash.startsWith(SHA256_PREFIX)) {
+            throw new IllegalArgumentException("Unsupported password hash scheme");
+        }
+        int roundsStart = SHA512_PREFIX.length();
+        int saltStart = hash.indexOf('$', roundsStart) + 1;
+        int checksumStart = saltStart > 0 ? hash.indexOf('$', saltStart) + 1 : 0;
+        if (saltStart == 0 || checksumStart == 0) {
+            throw new IllegalArgumentException("Invalid password hash");
+        }
+        int iterations = Integer.parseInt(hash, roundsStart, saltStart - 1, 10);
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Invalid password hash");
+        }
+        byte[] salt = ab64Decode(hash, saltStart, checksumStart - 1);
+        byte[] checksum = ab64Decode(hash, checksumStart, hash.length());
+        if (checksum.length == 0) {
+            throw new IllegalArgumentException("Invalid password hash");
+        }
+        byte[] key = password.getBytes(StandardCharsets.UTF_8);
+        byte[] derived = sha512
+                ? Sha512.derive(key, salt, iterations, checksum.length)
+                : Sha256.derive(key, salt, iterations, checksum.length);
+        return MessageDigest.isEqual(derived, checksum);
+    }
+
+    /**
+     * Decode passlib's adapted base64 between {@code from} and {@code to}.
+     */
+    static byte[] ab64Decode(String s, int from, int to) {
+        int end = to;
+        while (end > from && s.charAt(end - 1) == '=') {
+            end--;
+        }
+        byte[] out = new byte[(end - from) * 6 / 8];
+        int acc = 0;
+        int bits = 0;
+        int o = 0;
+        for (int i = from; i < end; i++) {
+            acc = (acc << 6) | ab64Value(s.charAt(i));
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[o++] = (byte) (acc >>> bits);
+                acc &= (1 << bits) - 1;
+            }
+        }
+        return out;
+    }
+
+    private static int ab64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        }
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+        if (c == '.' || c == '+') {
+            return 62;
+        }
+        if (c == '/') {
+            return 63;
+        }
+        throw new IllegalArgumentException("Invalid password hash");
+    }
+
+    /**
+     * PBKDF2 with HMAC-SHA-512, on 64-bit words.
+     */
+    static final class Sha512 {
+        private static final int BLOCK_BYTES = 128;
+        private static final int DIGEST_WORDS = 8;
+
+        private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+        };
+
+        private static final long[] K = {
+            0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+            0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+            0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+            0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+            0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+            0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+            0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+            0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+            0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+            0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+            0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+            0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+            0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+            0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+            0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+            0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+            0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+            0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+            0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+            0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+        };
+
+        private Sha512() {
+        }
+
+        static byte[] derive(byte[] password, byte[] salt, int iterations, int keyLength) {
+            long[] w = new long[80];
+            long[] ipad = new long[DIGEST_WORDS];
+            long[] opad = new long[DIGEST_WORDS];
+            padStates(password, w, ipad, opad);
+
+            byte[] derived = new byte[keyLength];
+            byte[] message = new byte[salt.length + 4];
+            System.arraycopy(salt, 0, message, 0, salt.length);
+            long[] u = new long[DIGEST_WORDS];
+            long[] t = new long[DIGEST_WORDS];
+            int blocks = (keyLength + DIGEST_WORDS * 8 - 1) / (DIGEST_WORDS * 8);
+            for (int block = 1; block <= blocks; block++) {
+                message[salt.length] = (byte) (block >>> 24);
+                message[salt.length + 1] = (byte) (block >>> 16);
+                message[salt.length + 2] = (byte) (block >>> 8);
+                message[salt.length + 3] = (byte) block;
+                // U1 = HMAC(P, S || INT(i))
+                digest(ipad, BLOCK_BYTES, message, w, u);
+                hmacOuter(opad, u, w);
+                System.arraycopy(u, 0, t, 0, DIGEST_WORDS);
+                // Uj = HMAC(P, Uj-1); the message is always one digest, so inner and outer fit one block each.
+                for (int i = 1; i < iterations; i++) {
+                    hmacInner(ipad, u, w);
+                    hmacOuter(opad, u, w);
+                    for (int j = 0; j < DIGEST_WORDS; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+                int offset = (block - 1) * DIGEST_WORDS * 8;
+                for (int j = 0; j < DIGEST_WORDS * 8 && offset + j < keyLength; j++) {
+                    derived[offset + j] = (byte) (t[j >>> 3] >>> (56 - ((j & 7) << 3)));
+                }
+            }
+            return derived;
+        }
+
+        private static void padStates(byte[] password, long[] w, long[] ipad, long[] opad) {
+            byte[] key = password;
+            if (key.length > BLOCK_BYTES) {
+                long[] hashed = new long[DIGEST_WORDS];
+                digest(IV, 0, key, w, hashed);
+                key = new byte[DIGEST_WORDS * 8];
+                for (int j = 0; j < key.length; j++) {
+                    key[j] = (byte) (hashed[j >>> 3] >>> (56 - ((j & 7) << 3)));
+                }
+            }
+            byte[] padded = new byte[BLOCK_BYTES];
+            System.arraycopy(key, 0, padded, 0, key.length);
+            for (int i = 0; i < BLOCK_BYTES; i++) {
+                padded[i] ^= 0x36;
+            }
+            load(padded, 0, w);
+            compress(IV, w, ipad);
+            for (int i = 0; i < BLOCK_BYTES; i++) {
+                padded[i] ^= 0x36 ^ 0x5c;
+            }
+            load(padded, 0, w);
+            compress(IV, w, opad);
+        }
+
+        private static void hmacInner(long[] ipad, long[] u, long[] w) {
+            oneDigestBlock(u, w);
+            compress(ipad, w, u);
+        }
+
+        private static void hmacOuter(long[] opad, long[] u, long[] w) {
+            oneDigestBlock(u, w);
+            compress(opad, w, u);
+        }
+
+        /**
+         * Message block holding a single digest after one already processed pad block.
+         */
+        private static void oneDigestBlock(long[] digest, long[] w) {
+            System.arraycopy(digest, 0, w, 0, DIGEST_WORDS);
+            w[8] = 0x8000000000000000L;
+            w[9] = 0;
+            w[10] = 0;
+            w[11] = 0;
+            w[12] = 0;
+            w[13] = 0;
+            w[14] = 0;
+            w[15] = (BLOCK_BYTES + DIGEST_WORDS * 8) * 8L;
+        }
+
+        /**
+         * Hash the message starting from the given state, after {@code prefixLength} bytes were processed.
+         */
+        private static void digest(long[] state, long prefixLength, byte[] message, long[] w, long[] out) {
+            int length = message.length + 1 + 16;
+            byte[] padded = new byte[(length + BLOCK_BYTES - 1) / BLOCK_BYTES * BLOCK_BYTES];
+            System.arraycopy(message, 0, padded, 0, message.length);
+            padded[message.length] = (byte) 0x80;
+            long bits = (prefixLength + message.length) * 8;
+            for (int i = 0; i < 8; i++) {
+                padded[padded.length - 1 - i] = (byte) (bits >>> (i * 8));
+            }
+            System.arraycopy(state, 0, out, 0, DIGEST_WORDS);
+            for (int offset = 0; offset < padded.length; offset += BLOCK_BYTES) {
+                load(padded, offset, w);
+                compress(out, w, out);
+            }
+        }
+
+        private static void load(byte[] bytes, int offset, long[] w) {
+            for (int i = 0; i < 16; i++) {
+                long v = 0;
+                for (int j = 0; j < 8; j++) {
+                    v = (v << 8) | (bytes[offset + i * 8 + j] & 0xff);
+                }
+                w[i] = v;
+            }
+        }
+
+        /**
+         * SHA-512 compression of the block in {@code w[0..15]}; {@code w[16..79]} is used as scratch space.
+         * {@code out} may be the same array as {@code h}.
+         */
+        private static void compress(long[] h, long[] w, long[] out) {
+            for (int t = 16; t < 80; t++) {
+                long w2 = w[t - 2];
+                long w15 = w[t - 15];
+                long s1 = Long.rotateRight(w2, 19) ^ Long.rotateRight(w2, 61) ^ (w2 >>> 6);
+                long s0 = Long.rotateRight(w15, 1) ^ Long.rotateRight(w15, 8) ^ (w15 >>> 7);
+                w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+            }
+            long a = h[0];
+            long b = h[1];
+            long c = h[2];
+            long d = h[3];
+            long e = h[4];
+            long f = h[5];
+            long g = h[6];
+            long hh = h[7];
+            for (int t = 0; t < 80; t++) {
+                long s1 = Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41);
+                long ch = (e & f) ^ (~e & g);
+                long t1 = hh + s1 + ch + K[t] + w[t];
+                long s0 = Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39);
+                long maj = (a & b) ^ (a & c) ^ (b & c);
+                hh = g;
+                g = f;
+                f = e;
+                e = d + t1;
+                d = c;
+                c = b;
+                b = a;
+                a = t1 + s0 + maj;
+            }
+            out[0] = h[0] + a;
+            out[1] = h[1] + b;
+            out[2] = h[2] + c;
+            out[3] = h[3] + d;
+            out[4] = h[4] + e;
+            out[5] = h[5] + f;
+            out[6] = h[6] + g;
+            out[7] = h[7] + hh;
+        }
+    }
+
+    /**
+     * PBKDF2 with HMAC-SHA-256, on 32-bit words.
+     */
+    static final class Sha256 {
+        private static final int BLOCK_BYTES = 64;
+        private static final int DIGEST_WORDS = 8;
+
+        private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+        };
+
+        private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+        };
+
+        private Sha256() {
+        }
+
+        static byte[] derive(byte[] password, byte[] salt, int iterations, int keyLength) {
+            int[] w = new int[64];
+            int[] ipad = new int[DIGEST_WORDS];
+            int[] opad = new int[DIGEST_WORDS];
+            padStates(password, w, ipad, opad);
+
+            byte[] derived = new byte[keyLength];
+            byte[] message = new byte[salt.length + 4];
+            System.arraycopy(salt, 0, message, 0, salt.length);
+            int[] u = new int[DIGEST_WORDS];
+            int[] t = new int[DIGEST_WORDS];
+            int blocks = (keyLength + DIGEST_WORDS * 4 - 1) / (DIGEST_WORDS * 4);
+            for (int block = 1; block <= blocks; block++) {
+                message[salt.length] = (byte) (block >>> 24);
+                message[salt.length + 1] = (byte) (block >>> 16);
+                message[salt.length + 2] = (byte) (block >>> 8);
+                message[salt.length + 3] = (byte) block;
+                digest(ipad, BLOCK_BYTES, message, w, u);
+                hmacOuter(opad, u, w);
+                System.arraycopy(u, 0, t, 0, DIGEST_WORDS);
+                for (int i = 1; i < iterations; i++) {
+                    hmacInner(ipad, u, w);
+                    hmacOuter(opad, u, w);
+                    for (int j = 0; j < DIGEST_WORDS; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+                int offset = (block - 1) * DIGEST_WORDS * 4;
+                for (int j = 0; j < DIGEST_WORDS * 4 && offset + j < keyLength; j++) {
+                    derived[offset + j] = (byte) (t[j >>> 2] >>> (24 - ((j & 3) << 3)));
+                }
+            }
+            return derived;
+        }
+
+        private static void padStates(byte[] password, int[] w, int[] ipad, int[] opad) {
+            byte[] key = password;
+            if (key.length > BLOCK_BYTES) {
+                int[] hashed = new int[DIGEST_WORDS];
+                digest(IV, 0, key, w, hashed);
+                key = new byte[DIGEST_WORDS * 4];
+                for (int j = 0; j < key.length; j++) {
+                    key[j] = (byte) (hashed[j >>> 2] >>> (24 - ((j & 3) << 3)));
+                }
+            }
+            byte[] padded = new byte[BLOCK_BYTES];
+            System.arraycopy(key, 0, padded, 0, key.length);
+            for (int i = 0; i < BLOCK_BYTES; i++) {
+                padded[i] ^= 0x36;
+            }
+            load(padded, 0, w);
+            compress(IV, w, ipad);
+            for (int i = 0; i < BLOCK_BYTES; i++) {
+                padded[i] ^= 0x36 ^ 0x5c;
+            }
+            load(padded, 0, w);
+            compress(IV, w, opad);
+        }
+
+        private static void hmacInner(int[] ipad, int[] u, int[] w) {
+            oneDigestBlock(u, w);
+            compress(ipad, w, u);
+        }
+
+        private static void hmacOuter(int[] opad, int[] u, int[] w) {
+            oneDigestBlock(u, w);
+            compress(opad, w, u);
+        }
+
+        private static void oneDigestBlock(int[] digest, int[] w) {
+            System.arraycopy(digest, 0, w, 0, DIGEST_WORDS);
+            w[8] = 0x80000000;
+            w[9] = 0;
+            w[10] = 0;
+            w[11] = 0;
+            w[12] = 0;
+            w[13] = 0;
+            w[14] = 0;
+            w[15] = (BLOCK_BYTES + DIGEST_WORDS * 4) * 8;
+        }
+
+        private static void digest(int[] state, long prefixLength, byte[] message, int[] w, int[] out) {
+            int length = message.length + 1 + 8;
+            byte[] padded = new byte[(length + BLOCK_BYTES - 1) / BLOCK_BYTES * BLOCK_BYTES];
+            System.arraycopy(message, 0, padded, 0, message.length);
+            padded[message.length] = (byte) 0x80;
+            long bits = (prefixLength + message.length) * 8;
+            for (int i = 0; i < 8; i++) {
+                padded[padded.length - 1 - i] = (byte) (bits >>> (i * 8));
+            }
+            System.arraycopy(state, 0, out, 0, DIGEST_WORDS);
+            for (int offset = 0; offset < padded.length; offset += BLOCK_BYTES) {
+                load(padded, offset, w);
+                compress(out, w, out);
+            }
+        }
+
+        private static void load(byte[] bytes, int offset, int[] w) {
+            for (int i = 0; i < 16; i++) {
+                int p = offset + i * 4;
+                w[i] = (bytes[p] & 0xff) << 24 | (bytes[p + 1] & 0xff) << 16 | (bytes[p + 2] & 0xff) << 8
+                        | (bytes[p + 3] & 0xff);
+            }
+        }
+
+        private static void compress(int[] h, int[] w, int[] out) {
+            for (int t = 16; t < 64; t++) {
+                int w2 = w[t - 2];
+                int w15 = w[t - 15];
+                int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+                int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+                w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+            }
+            int a = h[0];
+            int b = h[1];
+            int c = h[2];
+            int d = h[3];
+            int e = h[4];
+            int f = h[5];
+            int g = h[6];
+            int hh = h[7];
+            for (int t = 0; t < 64; t++) {
+                int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+                int ch = (e & f) ^ (~e & g);
+                int t1 = hh + s1 + ch + K[t] + w[t];
+                int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+                int maj = (a & b) ^ (a & c) ^ (b & c);
+                hh = g;
+                g = f;
+                f = e;
+                e = d + t1;
+                d = c;
+                c = b;
+                b = a;
+                a = t1 + s0 + maj;
+            }
+            out[0] = h[0] + a;
+            out[1] = h[1] + b;
+            out[2] = h[2] + c;
+            out[3] = h[3] + d;
+            out[4] = h[4] + e;
+            out[5] = h[5] + f;
+            out[6] = h[6] + g;
+            out[7] = h[7] + hh;
+        }
+    }
+}
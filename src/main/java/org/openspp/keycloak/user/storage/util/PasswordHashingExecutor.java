@@ -0,0 +1,150 @@
+package org.openspp.keycloak.user.storage.util;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micrometer.core.instrument.Timer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs password hash verification on a dedicated, size limited pool so login storms cannot occupy
+ * every request thread with CPU bound PBKDF2 work. When the queue is full, or the verification
+ * does not complete within the maximum wait, the caller gets {@link Result#BUSY} straight away.
+ */
+@Slf4j
+public class PasswordHashingExecutor implements Closeable {
+
+    public enum Result {
+        VALID,
+        INVALID,
+        BUSY
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final long maxWait;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final Timer verificationTimer;
+
+    /**
+     * @param threads           number of hashing threads.
+     * @param queueSize         number of verifications allowed to wait for a hashing thread.
+     * @param maxWait           maximum time in milliseconds a caller waits for its verification, queueing included.
+     * @param verificationTimer records the time spent hashing, queueing excluded.
+     */
+    public PasswordHashingExecutor(String name, int threads, int queueSize, long maxWait, Timer verificationTimer) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(queueSize, 1)),
+                r -> {
+                    Thread t = new Thread(r, "openspp-pbkdf2-" + name + "-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.maxWait = maxWait;
+        this.verificationTimer = verificationTimer;
+    }
+
+    public Result validatePassword(String password, String hash) {
+        long submitted = System.nanoTime();
+        Future<Boolean> future;
+        try {
+            future = executor.submit(() -> {
+                long started = System.nanoTime();
+                queueWaitNanos.add(started - submitted);
+                try {
+                    return PBKDF2HashingUtil.validatePassword(password, hash);
+                } finally {
+                    verificationTimer.record(System.nanoTime() - started, NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            log.warn("Password hashing queue is full, rejecting verification: queueDepth={}", getQueueDepth());
+            return Result.BUSY;
+        }
+        try {
+            boolean valid = future.get(maxWait, MILLISECONDS);
+            verified.increment();
+            return valid ? Result.VALID : Result.INVALID;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.increment();
+            log.warn("Password verification did not complete within {}ms: queueDepth={}", maxWait, getQueueDepth());
+            return Result.BUSY;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return Result.BUSY;
+        } catch (ExecutionException e) {
+            verified.increment();
+            log.error(e.getCause().getMessage(), e.getCause());
+            return Result.INVALID;
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    public long getVerifiedCount() {
+        return verified.sum();
+    }
+
+    /**
+     * @return total time in nanoseconds verifications spent queued before a hashing thread picked them up.
+     */
+    public long getQueueWaitNanos() {
+        return queueWaitNanos.sum();
+    }
+
+    public void logStats(String name) {
+        long count = verified.sum() + timedOut.sum();
+        log.info("Password hashing {}: verified={} rejected={} timedOut={} queueDepth={} avgQueueWaitMs={}", name,
+                verified.sum(), rejected.sum(), timedOut.sum(), getQueueDepth(),
+                count > 0 ? String.format("%.2f", queueWaitNanos.sum() / 1e6 / count) : "0");
+    }
+
+    /**
+     * Let the verifications already submitted complete, later ones are refused as busy.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Keep verifying for the drain timeout, so requests still holding the replaced configuration are not
+     * refused as busy, then {@link #close()}.
+     */
+    public void close(long drainTimeout) {
+        CompletableFuture.delayedExecutor(drainTimeout, MILLISECONDS).execute(this::close);
+    }
+}
@@ -0,0 +1,112 @@
+package org.openspp.keycloak.user.storage.util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.openspp.keycloak.user.storage.UserStorageException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Walks an open database cursor lazily, mapping one row at a time as the stream
+ * consumer asks for it. The result set, statement and connection are released as
+ * soon as the cursor is exhausted, the row limit is reached or the stream is closed.
+ */
+@Slf4j
+public class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    private final Connection connection;
+    private final Statement statement;
+    private final ResultSet resultSet;
+    private final RowMapper<T> rowMapper;
+    private final IntConsumer rowCountListener;
+    private int remaining;
+    private int rowsRead;
+    private boolean closed;
+
+    /**
+     * @param limit            maximum number of rows to read, or a negative value to read until the cursor is exhausted.
+     * @param rowCountListener told the number of rows read once the cursor is released.
+     */
+    public ResultSetSpliterator(Connection connection, Statement statement, ResultSet resultSet,
+            RowMapper<T> rowMapper, int limit, IntConsumer rowCountListener) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.rowMapper = rowMapper;
+        this.remaining = limit;
+        this.rowCountListener = rowCountListener;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (closed) {
+            return false;
+        }
+        T row;
+        try {
+            if (remaining == 0 || !resultSet.next()) {
+                close();
+                return false;
+            }
+            row = rowMapper.map(resultSet);
+            rowsRead++;
+        } catch (SQLException e) {
+            close();
+            throw new UserStorageException(e.getMessage(), e);
+        }
+        if (remaining > 0 && --remaining == 0) {
+            // The page is complete, there is no need to wait for the consumer to ask for one more row.
+            close();
+        }
+        action.accept(row);
+        return true;
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(this, false).onClose(this::close);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        rowCountListener.accept(rowsRead);
+        try {
+            resultSet.close();
+            statement.close();
+            // End the read-only transaction holding the cursor before handing the connection back.
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to release cursor: {}", e.getMessage());
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.openspp.keycloak.user.storage.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Server side {@code statement_timeout} of the database sessions, set before each query to the timeout of its
+ * kind, so the database stops a statement whose cancel did not get through. The value each session carries is
+ * remembered per physical connection, and the SET is only sent when it changes: queries of kinds sharing a
+ * timeout cost no extra round trip. The SET must run in autocommit mode, a rolled back transaction would undo it.
+ */
+public final class StatementTimeout {
+
+    // Weak keys compare by identity, and let closed connections go.
+    private static final Cache<Connection, Long> SESSION_TIMEOUTS = CacheBuilder.newBuilder().weakKeys().build();
+
+    private StatementTimeout() {
+    }
+
+    /**
+     * @param timeout milliseconds, 0 for no limit.
+     */
+    public static void apply(Connection c, long timeout) throws SQLException {
+        // The pool hands out proxies, the session belongs to the driver connection behind them.
+        Connection session = c.unwrap(Connection.class);
+        Long current = SESSION_TIMEOUTS.getIfPresent(session);
+        if (current != null && current == timeout) {
+            return;
+        }
+        try (Statement statement = c.createStatement()) {
+            statement.execute("SET statement_timeout = " + timeout);
+        }
+        SESSION_TIMEOUTS.put(session, timeout);
+    }
+}
@@ -0,0 +1,181 @@
+package org.openspp.keycloak.user.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakTransaction;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.storage.UserStorageProviderModel;
+import org.openspp.keycloak.user.storage.util.Bulkhead;
+import org.openspp.keycloak.user.storage.util.CircuitBreaker;
+import org.openspp.keycloak.user.storage.util.PasswordHashingExecutor;
+
+class ProviderConfigRegistryTest {
+
+    private final AtomicInteger configured = new AtomicInteger();
+    // Held by a test to keep versions after the first one configuring.
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private final ProviderConfigRegistry registry = new ProviderConfigRegistry(this::configure,
+            Arrays.asList(property("url"), property("poolSize")));
+    private final List<KeycloakTransaction> enlisted = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        release.countDown();
+        registry.close();
+    }
+
+    private static ProviderConfigProperty property(String name) {
+        ProviderConfigProperty property = new ProviderConfigProperty();
+        property.setName(name);
+        return property;
+    }
+
+    private ProviderConfig configure(ComponentModel model, long version, RegistryMetrics metrics) {
+        configured.incrementAndGet();
+        if (version > 1) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return new ProviderConfig(version, new DataSourceProvider(), null, new RegistrantCache(1000, 10),
+                new NegativeLookupCache(1000, 10), new PasswordHashingExecutor(model.getName(), 1, 1, 1000,
+                        metrics.getPasswordVerificationTimer()),
+                new KeysetCursorCache(1000, 10), new UserCountCache(1000, 10),
+                new CircuitBreaker(model.getName(), 5, 5000, 10000, 1), new Bulkhead(model.getName(), 0), metrics);
+    }
+
+    private static ComponentModel newModel() {
+        ComponentModel model = new ComponentModel();
+        model.setId(UUID.randomUUID().toString());
+        model.setName("registry");
+        model.put("url", "jdbc:postgresql://localhost/openspp");
+        model.put("poolSize", "50");
+        return model;
+    }
+
+    private KeycloakSession newSession() {
+        KeycloakTransactionManager transactionManager = (KeycloakTransactionManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { KeycloakTransactionManager.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("enlistAfterCompletion")) {
+                        KeycloakTransaction transaction = (KeycloakTransaction) args[0];
+                        transaction.begin();
+                        enlisted.add(transaction);
+                    }
+                    return null;
+                });
+        return (KeycloakSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { KeycloakSession.class },
+                (proxy, method, args) -> method.getName().equals("getTransactionManager") ? transactionManager : null);
+    }
+
+    @Test
+    void unchangedComponentIsConfiguredOnce() {
+        ComponentModel model = newModel();
+
+        ProviderConfig config = registry.get(model);
+
+        assertSame(config, registry.get(new ComponentModel(model)));
+        UserStorageProviderModel synced = new UserStorageProviderModel(model);
+        synced.setLastSync(1700000000);
+        assertSame(config, registry.get(synced));
+        assertEquals(1, configured.get());
+    }
+
+    @Test
+    void changedComponentIsServedByCurrentSnapshotUntilNextIsReady() throws Exception {
+        ComponentModel model = newModel();
+        ProviderConfig current = registry.get(model);
+        release = new CountDownLatch(1);
+
+        ComponentModel changed = new ComponentModel(model);
+        changed.put("poolSize", "10");
+
+        // Neither the request seeing the change nor the ones after it wait for the new version.
+        assertSame(current, registry.get(changed));
+        assertSame(current, registry.get(changed));
+        release.countDown();
+        for (int i = 0; i < 100 && registry.find(model.getId()) == current; i++) {
+            Thread.sleep(50);
+        }
+
+        ProviderConfig next = registry.find(model.getId());
+        assertEquals(2, next.version);
+        assertSame(next, registry.get(changed));
+        assertEquals(2, configured.get());
+    }
+
+    @Test
+    void savedVersionIsConfiguredOnceWhileValidating() {
+        ComponentModel model = newModel();
+        ProviderConfig current = registry.get(model);
+        ComponentModel changed = new ComponentModel(model);
+        changed.put("poolSize", "10");
+
+        registry.validate(newSession(), changed);
+
+        assertEquals(2, configured.get());
+        assertSame(current, registry.find(model.getId()));
+        enlisted.forEach(KeycloakTransaction::commit);
+        ProviderConfig next = registry.find(model.getId());
+        assertEquals(2, next.version);
+        assertSame(next, registry.get(changed));
+        assertEquals(2, configured.get());
+    }
+
+    @Test
+    void newComponentIsPublishedUnderTheIdItIsSavedWith() {
+        ComponentModel model = newModel();
+        model.setId(null);
+
+        registry.validate(newSession(), model);
+        enlisted.forEach(KeycloakTransaction::commit);
+
+        assertNotNull(model.getId());
+        assertSame(registry.find(model.getId()), registry.get(model));
+        assertEquals(1, configured.get());
+    }
+
+    @Test
+    void unsavedVersionIsClosed() {
+        ComponentModel model = newModel();
+
+        registry.validate(newSession(), model);
+        enlisted.forEach(KeycloakTransaction::rollback);
+
+        assertNull(registry.find(model.getId()));
+        assertEquals(1, enlisted.size());
+    }
+
+    @Test
+    void unchangedComponentIsNotConfiguredWhenSaved() {
+        ComponentModel model = newModel();
+        registry.get(model);
+        UserStorageProviderModel synced = new UserStorageProviderModel(model);
+        synced.setLastSync(1700000000);
+
+        registry.validate(newSession(), synced);
+
+        assertTrue(enlisted.isEmpty());
+        assertEquals(1, configured.get());
+    }
+}
@@ -0,0 +1,87 @@
+package org.openspp.keycloak.user.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.storage.UserStorageProviderModel;
+
+class ProviderConfigTest {
+
+    private static final List<String> KEYS = Arrays.asList("url", "poolSize", "replicaUrls");
+
+    private static ComponentModel newModel() {
+        ComponentModel model = new ComponentModel();
+        model.setId("component");
+        model.setName("registry");
+        model.put("url", "jdbc:postgresql://localhost/openspp");
+        model.put("poolSize", "50");
+        return model;
+    }
+
+    private static String fingerprint(ComponentModel model) {
+        return ProviderConfig.fingerprint(model, KEYS);
+    }
+
+    /**
+     * Keycloak saves the time of the last sync after every sync, which must not build a new version.
+     */
+    @Test
+    void fingerprintIgnoresLastSync() {
+        ComponentModel model = newModel();
+        String fingerprint = fingerprint(model);
+
+        UserStorageProviderModel synced = new UserStorageProviderModel(model);
+        synced.setLastSync(1700000000);
+        assertEquals(fingerprint, fingerprint(synced));
+
+        synced.setLastSync(1700003600);
+        assertEquals(fingerprint, fingerprint(synced));
+    }
+
+    /**
+     * A config imported with a fingerprint of an earlier export, or edited directly, is still a new version.
+     */
+    @Test
+    void editedConfigWithStaleStampIsNewVersion() {
+        ComponentModel model = newModel();
+        String fingerprint = fingerprint(model);
+        model.put("configFingerprint", fingerprint);
+
+        model.put("poolSize", "10");
+
+        assertNotEquals(fingerprint, fingerprint(model));
+    }
+
+    @Test
+    void fingerprintChangesWithNameAndConfig() {
+        String fingerprint = fingerprint(newModel());
+
+        ComponentModel renamed = newModel();
+        renamed.setName("registry2");
+        assertNotEquals(fingerprint, fingerprint(renamed));
+
+        ComponentModel resized = newModel();
+        resized.put("poolSize", "10");
+        assertNotEquals(fingerprint, fingerprint(resized));
+
+        ComponentModel added = newModel();
+        added.put("replicaUrls", "");
+        assertNotEquals(fingerprint, fingerprint(added));
+    }
+
+    @Test
+    void fingerprintKeepsKeysAndValuesApart() {
+        ComponentModel model = new ComponentModel();
+        model.put("ab", "c");
+        ComponentModel shifted = new ComponentModel();
+        shifted.put("a", "bc");
+
+        List<String> keys = Arrays.asList("a", "ab");
+        assertNotEquals(ProviderConfig.fingerprint(model, keys), ProviderConfig.fingerprint(shifted, keys));
+    }
+}
@@ -0,0 +1,88 @@
+package org.openspp.keycloak.user.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class QueryConfigurationsTest {
+
+    private static QueryConfigurations newQueryConfigurations(PaginationMode paginationMode, CountMode countMode) {
+        QueryConfigurations queryConfigurations = new QueryConfigurations(
+                Query.getCount(),
+                Query.getCountEstimate(),
+                Query.getListAll(),
+                Query.getFindById(),
+                Query.getFindByUsername(),
+                Query.getFindByBeneficiaryForm(),
+                Query.getFindBySearchTerm(),
+                Query.getFindByIdentifier(),
+                Query.getFindPasswordHash(),
+                Query.getFindPasswordHashAlt(),
+                JDBC.POSTGRESQL);
+        queryConfigurations.setPaginationMode(paginationMode);
+        queryConfigurations.setCountMode(countMode);
+        queryConfigurations.setSearchCountCap(1000);
+        return queryConfigurations;
+    }
+
+    /**
+     * A partner with several ID numbers, phone numbers or memberships has several rows in the view: ordered
+     * pages keep one of them, so the id alone is a total order and the OFFSET of a page counts partners.
+     */
+    @Test
+    void orderedQueryKeepsOneRowPerPartner() {
+        QueryConfigurations queryConfigurations = newQueryConfigurations(PaginationMode.KEYSET, CountMode.CAPPED);
+        String query = queryConfigurations.getFindBySearchTerm();
+
+        String ordered = queryConfigurations.getOrderedQuery(query);
+
+        assertTrue(ordered.startsWith("SELECT DISTINCT ON (page.id) * FROM ("), ordered);
+        assertTrue(ordered.endsWith(") page ORDER BY page.id, page"), ordered);
+        assertTrue(ordered.contains(query), ordered);
+        assertEquals(queryConfigurations.getParameterCount(query), queryConfigurations.getParameterCount(ordered));
+    }
+
+    /**
+     * The cursor seeks past the last partner of the previous page on the deduplicated rows, so no row of a
+     * partner whose rows straddle the page boundary is left for the next page to skip.
+     */
+    @Test
+    void keysetQuerySeeksOnDeduplicatedRows() {
+        QueryConfigurations queryConfigurations = newQueryConfigurations(PaginationMode.KEYSET, CountMode.CAPPED);
+        String query = queryConfigurations.getFindBySearchTerm();
+
+        String keyset = queryConfigurations.getKeysetQuery(query);
+
+        assertEquals("SELECT * FROM (" + queryConfigurations.getOrderedQuery(query)
+                + ") page WHERE page.id > ? ORDER BY page.id", keyset);
+        assertEquals(queryConfigurations.getParameterCount(query) + 1, queryConfigurations.getParameterCount(keyset));
+        assertEquals("findBySearchTerm", queryConfigurations.getQueryName(keyset));
+    }
+
+    @Test
+    void keysetCountsCountPartners() {
+        QueryConfigurations queryConfigurations = newQueryConfigurations(PaginationMode.KEYSET, CountMode.CAPPED);
+        String query = queryConfigurations.getFindBySearchTerm();
+
+        assertEquals("SELECT COUNT(*) FROM (SELECT DISTINCT page.id FROM (" + query + ") page LIMIT 1001) COUNT",
+                queryConfigurations.getCountQuery(query));
+    }
+
+    @Test
+    void exactCountsAreNotCapped() {
+        QueryConfigurations queryConfigurations = newQueryConfigurations(PaginationMode.OFFSET, CountMode.EXACT);
+        String query = queryConfigurations.getFindBySearchTerm();
+
+        assertEquals("SELECT COUNT(*) FROM (" + query + ") COUNT", queryConfigurations.getCountQuery(query));
+    }
+
+    @Test
+    void offsetCountsCountRows() {
+        QueryConfigurations queryConfigurations = newQueryConfigurations(PaginationMode.OFFSET, CountMode.CAPPED);
+        String query = queryConfigurations.getFindBySearchTerm();
+
+        assertEquals("SELECT COUNT(*) FROM (" + query + " LIMIT 1001) COUNT",
+                queryConfigurations.getCountQuery(query));
+    }
+}
@@ -0,0 +1,108 @@
+package org.openspp.keycloak.user.storage.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class PasslibPbkdf2VerifierTest {
+
+    // Known correct hashes of the passlib test suite (passlib.tests.test_handlers).
+    private static final String PASSLIB_SHA256 =
+            "$pbkdf2-sha256$1212$4vjV83LKPjQzk31VI4E0Vw$hsYF68OiOUPdDZ1Fg.fJPeq1h/gXXY7acBp9/6c.tmQ";
+    private static final String PASSLIB_SHA512 =
+            "$pbkdf2-sha512$1212$RHY0Fr3IDMSVO/RSZyb5ow$eNLfBK.eVozomMr.1gYa17k9B7KIK25NOEshvhrSX.esqY3s.FvWZViXz4KoLlQI.BzY/YTNJOiKc5gBYFYGww";
+
+    // Hashes with the passlib default rounds Odoo uses, and a non ASCII password.
+    private static final String ODOO_SHA512 =
+            "$pbkdf2-sha512$25000$ZGVmZ2hpamtsbW5vcHFycw$12uyYyRXDo4CS4UMIVvxuDpqFQ.sIBAnsiN4WHclmqAHbj5LhGNx9QvdX9uCJce46oSyrOgedgOq/Oos6JfxbA";
+    private static final String ODOO_SHA256 =
+            "$pbkdf2-sha256$29000$AAECAwQFBgcICQoLDA0ODw$m/kLywdyNwK9GV2kWntRGvZzmeiVsuqehNWlLst2eWY";
+    private static final String UTF8_SHA512 =
+            "$pbkdf2-sha512$1000$/////////////////////w$fGnhrkugqbuYytOWwrrP8P42QAHMugvc52kvfO3kArrgs0mnnaNbCU3kVYXW92SfDb.njbEGZtnR4OFxdzu33g";
+
+    @ParameterizedTest
+    @CsvSource({
+            "password, " + PASSLIB_SHA256,
+            "password, " + PASSLIB_SHA512,
+            "correct horse battery staple, " + ODOO_SHA512,
+            "correct horse battery staple, " + ODOO_SHA256,
+            "pässwörd, " + UTF8_SHA512,
+    })
+    void verifiesPasslibHashes(String password, String hash) {
+        assertTrue(PasslibPbkdf2Verifier.supports(hash));
+        assertTrue(PasslibPbkdf2Verifier.verify(password, hash));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { PASSLIB_SHA256, PASSLIB_SHA512, ODOO_SHA512, ODOO_SHA256, UTF8_SHA512 })
+    void rejectsWrongPassword(String hash) {
+        assertFalse(PasslibPbkdf2Verifier.verify("Password", hash));
+        assertFalse(PasslibPbkdf2Verifier.verify("", hash));
+    }
+
+    @Test
+    void rejectsTamperedChecksum() {
+        String tampered = PASSLIB_SHA256.replace("$hsYF", "$hsYG");
+        assertFalse(PasslibPbkdf2Verifier.verify("password", tampered));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "HmacSHA256, password, " + PASSLIB_SHA256,
+            "HmacSHA512, password, " + PASSLIB_SHA512,
+            "HmacSHA512, pässwörd, " + UTF8_SHA512,
+    })
+    void derivesSameKeyAsJce(String hmac, String password, String hash) throws Exception {
+        String[] parts = hash.split("\\$");
+        byte[] salt = PasslibPbkdf2Verifier.ab64Decode(parts[3], 0, parts[3].length());
+        byte[] checksum = PasslibPbkdf2Verifier.ab64Decode(parts[4], 0, parts[4].length());
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, Integer.parseInt(parts[2]),
+                checksum.length * 8);
+        byte[] expected = SecretKeyFactory.getInstance("PBKDF2With" + hmac).generateSecret(spec).getEncoded();
+        assertArrayEquals(expected, checksum);
+    }
+
+    @Test
+    void validatesThroughHashingUtil() throws Exception {
+        assertTrue(PBKDF2HashingUtil.validatePassword("password", PASSLIB_SHA512));
+        assertFalse(PBKDF2HashingUtil.validatePassword("wrong", PASSLIB_SHA512));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "$pbkdf2-sha256$1212",
+            "$pbkdf2-sha256$1212$4vjV83LKPjQzk31VI4E0Vw",
+            "$pbkdf2-sha256$abc$4vjV83LKPjQzk31VI4E0Vw$hsYF68OiOUPdDZ1Fg.fJPeq1h/gXXY7acBp9/6c.tmQ",
+            "$pbkdf2-sha256$0$4vjV83LKPjQzk31VI4E0Vw$hsYF68OiOUPdDZ1Fg.fJPeq1h/gXXY7acBp9/6c.tmQ",
+            "$pbkdf2-sha256$1212$4vjV83LKPjQzk31VI4E0Vw$",
+            "$pbkdf2-sha256$1212$4vjV83LKPjQzk31VI4E0Vw$hsYF68OiOUPdDZ1Fg*fJPeq1h",
+            "plaintext",
+    })
+    void rejectsMalformedHashes(String hash) {
+        assertThrows(IllegalArgumentException.class, () -> PasslibPbkdf2Verifier.verify("password", hash));
+        assertThrows(Exception.class, () -> PBKDF2HashingUtil.validatePassword("password", hash));
+    }
+
+    @Test
+    void decodesAdaptedBase64() {
+        String encoded = "x" + "AAECAwQFBgcICQoLDA0ODw" + "x";
+        byte[] expected = new byte[16];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+        assertArrayEquals(expected, PasslibPbkdf2Verifier.ab64Decode(encoded, 1, encoded.length() - 1));
+        assertArrayEquals("??>".getBytes(StandardCharsets.US_ASCII),
+                PasslibPbkdf2Verifier.ab64Decode("Pz8.", 0, 4));
+    }
+}